@@ -0,0 +1,54 @@
+package wv.codeclip;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+
+/**
+ * Status messages shown in their own small view, separate from the notes.
+ * Holds at most {@code capacity} entries: appending adds one line at the
+ * end of the document and drops the oldest from the front, so each
+ * message costs the size of the message, not the size of the log.
+ */
+public class ActivityLog {
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final int capacity;
+    private final ArrayDeque<Integer> entryLengths = new ArrayDeque<>();
+    private final JTextArea view = new JTextArea(3, 20);
+
+    public ActivityLog(int capacity) {
+        this.capacity = capacity;
+        view.setEditable(false);
+        view.setLineWrap(true);
+    }
+
+    public JTextArea getView() {
+        return view;
+    }
+
+    /** May be called from any thread. */
+    public void append(String message) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> append(message));
+            return;
+        }
+
+        String entry = LocalTime.now().format(TIME) + "  " + message + "\n";
+        Document doc = view.getDocument();
+        try {
+            doc.insertString(doc.getLength(), entry, null);
+            entryLengths.addLast(entry.length());
+            while (entryLengths.size() > capacity) {
+                doc.remove(0, entryLengths.removeFirst());
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        view.setCaretPosition(doc.getLength());
+    }
+}
@@ -0,0 +1,140 @@
+package wv.codeclip;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import java.util.*;
+
+/**
+ * Read-only document showing the bundle: one segment per enabled class,
+ * each followed by a blank line.
+ *
+ * {@link #setSegments} compares the new segment list with the current one
+ * and only removes / inserts the segments that differ, so toggling or
+ * updating one class fires one small event instead of replacing the text.
+ * Adjacent removals and insertions are merged into one edit each, since
+ * every edit costs a copy of the document's line index. An insertion
+ * hands the segment strings themselves to {@link SegmentContent}, so the
+ * document references the classes' code instead of holding a copy.
+ */
+public class BundleDocument extends PlainDocument {
+
+    private static final String SEPARATOR = "\n\n";
+
+    private List<String> segments = new ArrayList<>();
+
+    public BundleDocument() {
+        super(new SegmentContent());
+    }
+
+    /** Must be called on the EDT. Segments are compared by identity. */
+    public void setSegments(List<String> next) {
+        Set<String> nextSet = identitySet(next);
+        Set<String> prevSet = identitySet(segments);
+
+        List<String> result = new ArrayList<>(next.size());
+        int offset = 0;
+        int removing = 0;
+        List<String> inserting = new ArrayList<>();
+        int i = 0, j = 0;
+
+        try {
+            while (i < segments.size() || j < next.size()) {
+                String prev = i < segments.size() ? segments.get(i) : null;
+                String cur = j < next.size() ? next.get(j) : null;
+
+                if (prev != null && prev == cur) {
+                    offset = flush(offset, removing, inserting);
+                    removing = 0;
+                    offset += prev.length() + SEPARATOR.length();
+                    result.add(prev);
+                    i++;
+                    j++;
+                } else if (prev != null && (cur == null || !nextSet.contains(prev)
+                        || prevSet.contains(cur))) {
+                    // gone, or moved: drop it here, a moved one is re-inserted later
+                    if (!inserting.isEmpty()) {
+                        offset = flush(offset, removing, inserting);
+                        removing = 0;
+                    }
+                    removing += prev.length() + SEPARATOR.length();
+                    i++;
+                } else {
+                    inserting.add(cur);
+                    inserting.add(SEPARATOR);
+                    result.add(cur);
+                    j++;
+                }
+            }
+            flush(offset, removing, inserting);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+
+        segments = result;
+    }
+
+    /** Applies a pending removal, then a pending insertion, at {@code offset}. */
+    private int flush(int offset, int removing, List<String> inserting) throws BadLocationException {
+        if (removing > 0) {
+            super.remove(offset, removing);
+        }
+        if (!inserting.isEmpty()) {
+            int length = 0;
+            for (String s : inserting) length += s.length();
+            insertSegments(offset, inserting, length);
+            offset += length;
+            inserting.clear();
+        }
+        return offset;
+    }
+
+    // What AbstractDocument.insertString does, minus concatenating the parts
+    private void insertSegments(int offset, List<String> parts, int length) throws BadLocationException {
+        writeLock();
+        try {
+            ((SegmentContent) getContent()).insert(offset, parts, length);
+            DefaultDocumentEvent e = new DefaultDocumentEvent(offset, length, DocumentEvent.EventType.INSERT);
+            insertUpdate(e, null);
+            e.end();
+            fireInsertUpdate(e);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    public List<String> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /** Appends the bundle text without materializing it as one string first. */
+    public void appendTo(StringBuilder sb) {
+        for (String s : segments) {
+            sb.append(s).append(SEPARATOR);
+        }
+    }
+
+    public String getBundleText() {
+        StringBuilder sb = new StringBuilder(getLength());
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    // --- Read-only for everyone else ---
+    @Override
+    public void insertString(int offs, String str, AttributeSet a) throws BadLocationException {
+        throw new BadLocationException("Bundle document is read-only", offs);
+    }
+
+    @Override
+    public void remove(int offs, int len) throws BadLocationException {
+        throw new BadLocationException("Bundle document is read-only", offs);
+    }
+
+    private static Set<String> identitySet(List<String> list) {
+        Set<String> set = Collections.newSetFromMap(new IdentityHashMap<>(list.size() * 2));
+        set.addAll(list);
+        return set;
+    }
+}
@@ -0,0 +1,261 @@
+package wv.codeclip;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Chooses, for a size budget, which classes go into the bundle in full,
+ * which only as signatures ({@link SignatureExtractor}) and which are left
+ * out, maximizing the summed priority of what is sent.
+ *
+ * This is a multiple-choice knapsack solved by dynamic programming over
+ * the budget split into at most {@value #CELLS} cells (item sizes are
+ * rounded up, so the result always fits). Per-class data - signature,
+ * identifiers, file mtime - is cached by content, and the last plan is
+ * reused when neither the classes, the priorities nor the budget changed.
+ * Must be used on the EDT.
+ */
+public class BundlePacker {
+
+    public enum Mode { FULL, SIGNATURES, OMITTED }
+
+    /** A candidate: {@code text} is what goes in the bundle when sent in full. */
+    public record Item(String path, String text, boolean outlinable) {}
+
+    public record Plan(Map<String, Mode> modes, Map<String, String> outlines, int usedChars) {
+
+        public Mode modeOf(String path) {
+            return modes.getOrDefault(path, Mode.FULL);
+        }
+
+        public long count(Mode mode) {
+            return modes.values().stream().filter(m -> m == mode).count();
+        }
+    }
+
+    private static final int CELLS = 2048;
+    private static final int SEPARATOR = 2;
+    private static final double OUTLINE_VALUE = 0.35;
+    private static final String OUTLINE_MARK = "// (signatures only)\n";
+
+    private final Map<String, Features> features = new HashMap<>();
+
+    private List<Item> lastItems = List.of();
+    private double[] lastPriorities = new double[0];
+    private int lastBudget = -1;
+    private Plan lastPlan;
+
+    /**
+     * @param pinned     classes the user pinned
+     * @param pasteTimes when a class was last written by a paste (epoch millis)
+     */
+    public Plan solve(List<Item> items, int budgetChars, Set<String> pinned, Map<String, Long> pasteTimes) {
+        refreshFeatures(items);
+        double[] priorities = priorities(items, pinned, pasteTimes);
+
+        if (lastPlan != null && budgetChars == lastBudget
+                && sameItems(items) && Arrays.equals(priorities, lastPriorities)) {
+            return lastPlan;
+        }
+
+        Plan plan = knapsack(items, priorities, budgetChars);
+        lastItems = new ArrayList<>(items);
+        lastPriorities = priorities;
+        lastBudget = budgetChars;
+        lastPlan = plan;
+        return plan;
+    }
+
+    // ------------------------------------------------------------------
+    // Optimization
+    // ------------------------------------------------------------------
+
+    private Plan knapsack(List<Item> items, double[] priorities, int budget) {
+        int n = items.size();
+        int[] full = new int[n];
+        int[] outline = new int[n];
+        long total = 0;
+
+        for (int k = 0; k < n; k++) {
+            Item item = items.get(k);
+            full[k] = item.text.length() + SEPARATOR;
+            String o = outlineOf(item);
+            outline[k] = o != null && o.length() < item.text.length()
+                    ? o.length() + SEPARATOR
+                    : -1;
+            total += full[k];
+        }
+
+        Map<String, Mode> modes = new HashMap<>();
+        Map<String, String> outlines = new HashMap<>();
+
+        // Everything fits: nothing to decide
+        if (total <= budget) {
+            for (Item item : items) modes.put(item.path, Mode.FULL);
+            return new Plan(modes, outlines, (int) total);
+        }
+
+        int unit = Math.max(1, (budget + CELLS - 1) / CELLS);
+        int cells = budget / unit;
+
+        double[] best = new double[cells + 1];
+        byte[][] choice = new byte[n][];
+
+        for (int k = 0; k < n; k++) {
+            int wFull = (full[k] + unit - 1) / unit;
+            int wOutline = outline[k] < 0 ? -1 : (outline[k] + unit - 1) / unit;
+            double vFull = priorities[k];
+            double vOutline = priorities[k] * OUTLINE_VALUE;
+
+            byte[] pick = new byte[cells + 1];
+            for (int c = cells; c >= 0; c--) {
+                double b = best[c];
+                byte p = 0;
+                if (wFull <= c && best[c - wFull] + vFull > b) {
+                    b = best[c - wFull] + vFull;
+                    p = 1;
+                }
+                if (wOutline >= 0 && wOutline <= c && best[c - wOutline] + vOutline > b) {
+                    b = best[c - wOutline] + vOutline;
+                    p = 2;
+                }
+                best[c] = b;
+                pick[c] = p;
+            }
+            choice[k] = pick;
+        }
+
+        int used = 0;
+        int c = cells;
+        for (int k = n - 1; k >= 0; k--) {
+            Item item = items.get(k);
+            switch (choice[k][c]) {
+                case 1 -> {
+                    modes.put(item.path, Mode.FULL);
+                    c -= (full[k] + unit - 1) / unit;
+                    used += full[k];
+                }
+                case 2 -> {
+                    modes.put(item.path, Mode.SIGNATURES);
+                    outlines.put(item.path, outlineOf(item));
+                    c -= (outline[k] + unit - 1) / unit;
+                    used += outline[k];
+                }
+                default -> modes.put(item.path, Mode.OMITTED);
+            }
+        }
+        return new Plan(modes, outlines, used);
+    }
+
+    // ------------------------------------------------------------------
+    // Priorities
+    // ------------------------------------------------------------------
+
+    private double[] priorities(List<Item> items, Set<String> pinned, Map<String, Long> pasteTimes) {
+        // How many other candidates mention each class by simple name
+        Map<String, Integer> references = new HashMap<>();
+        for (Item item : items) references.put(simpleName(item.path), 0);
+        for (Item item : items) {
+            String own = simpleName(item.path);
+            for (String id : features.get(item.path).identifiers) {
+                if (!id.equals(own)) references.computeIfPresent(id, (k, v) -> v + 1);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        double[] result = new double[items.size()];
+        for (int k = 0; k < items.size(); k++) {
+            Item item = items.get(k);
+            double p = 1.0;
+            if (pinned.contains(item.path)) p += 1000;
+
+            Long pasted = pasteTimes.get(item.path);
+            if (pasted != null) p += 8 * Math.exp(-hours(now - pasted) / 2);
+
+            long modified = features.get(item.path).modified;
+            if (modified > 0) p += 4 * Math.exp(-hours(now - modified) / 24);
+
+            p += 2 * Math.log1p(references.getOrDefault(simpleName(item.path), 0));
+
+            // Rounded so the time decay does not defeat plan reuse
+            result[k] = Math.round(p * 100) / 100.0;
+        }
+        return result;
+    }
+
+    private static double hours(long millis) {
+        return Math.max(0, millis) / 3_600_000.0;
+    }
+
+    private static String simpleName(String path) {
+        String name = new File(path).getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // ------------------------------------------------------------------
+    // Per-class data, cached by content
+    // ------------------------------------------------------------------
+
+    private static final class Features {
+        final String text;
+        final Set<String> identifiers;
+        final long modified;
+        String outline;
+
+        Features(String path, String text) {
+            this.text = text;
+            this.identifiers = identifiers(text);
+            this.modified = new File(path).lastModified();
+        }
+    }
+
+    private void refreshFeatures(List<Item> items) {
+        Set<String> live = new HashSet<>();
+        for (Item item : items) {
+            live.add(item.path);
+            Features f = features.get(item.path);
+            if (f == null || f.text != item.text) {
+                features.put(item.path, new Features(item.path, item.text));
+            }
+        }
+        features.keySet().retainAll(live);
+    }
+
+    private String outlineOf(Item item) {
+        if (!item.outlinable) return null;
+        Features f = features.get(item.path);
+        if (f.outline == null) {
+            f.outline = OUTLINE_MARK + SignatureExtractor.extract(item.text);
+        }
+        return f.outline;
+    }
+
+    // Capitalized identifiers only: candidate type names
+    private static Set<String> identifiers(String text) {
+        Set<String> ids = new HashSet<>();
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < n && Character.isJavaIdentifierPart(text.charAt(i))) i++;
+                if (Character.isUpperCase(c)) ids.add(text.substring(start, i));
+            } else {
+                i++;
+            }
+        }
+        return ids;
+    }
+
+    private boolean sameItems(List<Item> items) {
+        if (items.size() != lastItems.size()) return false;
+        for (int k = 0; k < items.size(); k++) {
+            Item a = items.get(k);
+            Item b = lastItems.get(k);
+            if (!a.path.equals(b.path) || a.text != b.text || a.outlinable != b.outlinable) return false;
+        }
+        return true;
+    }
+}
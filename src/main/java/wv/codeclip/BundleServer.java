@@ -0,0 +1,326 @@
+package wv.codeclip;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Optional localhost HTTP endpoint exposing the current bundle, single
+ * classes and the notes to other tools.
+ *
+ * <pre>
+ * GET /bundle            enabled classes, as shown in the code area
+ * GET /bundle?notes=true same, followed by the notes (Copy All format)
+ * GET /classes           one line per class: enabled|disabled, name, path
+ * GET /classes/Foo.java  a single class by file name (or ?path=...)
+ * GET /notes             the notes text
+ * </pre>
+ *
+ * Every response carries an ETag built from SHA-256 digests of the
+ * content, so a polling client sending If-None-Match gets an empty 304
+ * while nothing changed. Requests whose Host header does not name the
+ * loopback address are refused, so a web page cannot reach the server
+ * through DNS rebinding.
+ */
+public class BundleServer {
+
+    private static final String NOTES_HEADER = "\n\n// === Notes ===\n";
+    private static final String NOTES_END_MARK = "\n// === END NOTES ===";
+
+    private final ClassRepository repo;
+    private final Supplier<String> notesSupplier;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicReference<Versioned> lastEntries = new AtomicReference<>();
+    private final AtomicReference<Notes> lastNotes = new AtomicReference<>();
+
+    public BundleServer(ClassRepository repo, Supplier<String> notesSupplier) {
+        this.repo = repo;
+        this.notesSupplier = notesSupplier;
+    }
+
+    // --- Lifecycle ---
+    public synchronized void start(int port) throws IOException {
+        if (server != null) return;
+
+        HttpServer created = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        created.createContext("/bundle", this::handleBundle);
+        created.createContext("/classes", this::handleClasses);
+        created.createContext("/notes", this::handleNotes);
+
+        executor = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "codeclip-http");
+            t.setDaemon(true);
+            return t;
+        });
+        created.setExecutor(executor);
+        created.start();
+        server = created;
+    }
+
+    public synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    // --- Handlers ---
+    private void handleBundle(HttpExchange ex) throws IOException {
+        try {
+            if (!checkRequest(ex)) return;
+
+            Snapshot snap = snapshot();
+            boolean withNotes = "true".equals(queryParam(ex, "notes"));
+
+            MessageDigest tag = sha256();
+            for (Entry e : snap.entries) {
+                if (e.enabled) tag.update(e.digest);
+            }
+            if (withNotes) tag.update(snap.notes.digest());
+
+            if (notModified(ex, "b" + hex(tag.digest()))) return;
+
+            ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            if (isHead(ex)) {
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            // Length 0 switches to chunked transfer, so large bundles are
+            // streamed class by class instead of being concatenated first.
+            ex.sendResponseHeaders(200, 0);
+            try (Writer w = new BufferedWriter(
+                    new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8), 64 * 1024)) {
+                for (Entry e : snap.entries) {
+                    if (!e.enabled) continue;
+                    w.write(e.code);
+                    w.write("\n\n");
+                }
+                if (withNotes) {
+                    w.write(NOTES_HEADER);
+                    w.write(snap.notes.text());
+                    w.write(NOTES_END_MARK);
+                }
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void handleClasses(HttpExchange ex) throws IOException {
+        try {
+            if (!checkRequest(ex)) return;
+
+            Snapshot snap = snapshot();
+            String rest = ex.getRequestURI().getPath().substring("/classes".length());
+            String pathParam = queryParam(ex, "path");
+
+            if (rest.length() > 1 || pathParam != null) {
+                String name = rest.length() > 1 ? rest.substring(1) : null;
+                for (Entry e : snap.entries) {
+                    if (e.path.equals(pathParam) || e.name.equals(name)) {
+                        sendText(ex, "c" + hex(e.digest), e.code);
+                        return;
+                    }
+                }
+                sendError(ex, 404, "No loaded class matches " + (name != null ? name : pathParam));
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (Entry e : snap.entries) {
+                sb.append(e.enabled ? "enabled" : "disabled")
+                  .append('\t').append(e.name)
+                  .append('\t').append(e.path)
+                  .append('\n');
+            }
+            String list = sb.toString();
+            sendText(ex, "l" + hex(sha256().digest(list.getBytes(StandardCharsets.UTF_8))), list);
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void handleNotes(HttpExchange ex) throws IOException {
+        try {
+            if (!checkRequest(ex)) return;
+            Snapshot snap = snapshot();
+            sendText(ex, "n" + hex(snap.notes.digest()), snap.notes.text());
+        } finally {
+            ex.close();
+        }
+    }
+
+    // --- Responses ---
+    private boolean checkRequest(HttpExchange ex) throws IOException {
+        if (!isLocalHost(ex.getRequestHeaders().getFirst("Host"), ex.getLocalAddress().getPort())) {
+            sendError(ex, 403, "Host not allowed");
+            return false;
+        }
+        String method = ex.getRequestMethod();
+        if ("GET".equals(method) || "HEAD".equals(method)) return true;
+        ex.getResponseHeaders().set("Allow", "GET, HEAD");
+        sendError(ex, 405, "Method not allowed");
+        return false;
+    }
+
+    // A page served from a rebound DNS name still sends its own host name
+    private static boolean isLocalHost(String host, int port) {
+        if (host == null) return false;
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        String suffix = ":" + port;
+        if (name.endsWith(suffix)) name = name.substring(0, name.length() - suffix.length());
+        return name.equals("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+    }
+
+    private boolean isHead(HttpExchange ex) {
+        return "HEAD".equals(ex.getRequestMethod());
+    }
+
+    private boolean notModified(HttpExchange ex, String tag) throws IOException {
+        String etag = "\"" + tag + "\"";
+        ex.getResponseHeaders().set("ETag", etag);
+        ex.getResponseHeaders().set("Cache-Control", "no-cache");
+
+        String ifNoneMatch = ex.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) return false;
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            String c = candidate.trim();
+            if (c.startsWith("W/")) c = c.substring(2);
+            if (c.equals(etag) || c.equals("*")) {
+                ex.sendResponseHeaders(304, -1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sendText(HttpExchange ex, String tag, String text) throws IOException {
+        if (notModified(ex, tag)) return;
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if (isHead(ex)) {
+            ex.sendResponseHeaders(200, -1);
+            return;
+        }
+        ex.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) ex.getResponseBody().write(bytes);
+    }
+
+    private void sendError(HttpExchange ex, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        ex.getResponseBody().write(bytes);
+    }
+
+    private String queryParam(HttpExchange ex, String name) {
+        String query = ex.getRequestURI().getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            if (key.equals(name)) {
+                return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    // --- Snapshot ---
+    // Repository snapshots are immutable and safe to read from the server
+    // threads; the entries built from one are reused until its version changes.
+    private Snapshot snapshot() {
+        ClassRepository.Snapshot repoSnapshot = repo.snapshot();
+        Versioned cached = lastEntries.get();
+        List<Entry> entries;
+        if (cached != null && cached.version == repoSnapshot.getVersion()) {
+            entries = cached.entries;
+        } else {
+            // Digests are only recomputed for code that is a different
+            // String than in the previous version
+            Map<String, Entry> previous = new HashMap<>();
+            if (cached != null) {
+                for (Entry e : cached.entries) previous.put(e.path, e);
+            }
+            entries = new ArrayList<>(repoSnapshot.getClassCodeMap().size());
+            for (String path : repoSnapshot.getClassCodeMap().keySet()) {
+                File file = repoSnapshot.getClassFileMap().get(path);
+                String code = repoSnapshot.getBundleCode(path);
+                Entry old = previous.get(path);
+                entries.add(new Entry(
+                        path,
+                        file != null ? file.getName() : new File(path).getName(),
+                        code,
+                        !repoSnapshot.getDisabledClasses().contains(path),
+                        old != null && old.code == code ? old.digest : digest(path, code)
+                ));
+            }
+            lastEntries.set(new Versioned(repoSnapshot.getVersion(), entries));
+        }
+
+        String text = notesSupplier.get();
+        if (text == null) text = "";
+        Notes notes = lastNotes.get();
+        if (notes == null || notes.text != text) {
+            notes = new Notes(text, sha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+            lastNotes.set(notes);
+        }
+        return new Snapshot(entries, notes);
+    }
+
+    private record Versioned(long version, List<Entry> entries) {}
+
+    private static byte[] digest(String path, String code) {
+        MessageDigest md = sha256();
+        md.update(path.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(code.getBytes(StandardCharsets.UTF_8));
+        return md.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+        }
+    }
+
+    // The first 128 bits are plenty for an ETag
+    private static String hex(byte[] digest) {
+        return HexFormat.of().formatHex(digest, 0, 16);
+    }
+
+    private record Snapshot(List<Entry> entries, Notes notes) {}
+
+    private record Notes(String text, byte[] digest) {}
+
+    private record Entry(String path, String name, String code, boolean enabled, byte[] digest) {}
+}
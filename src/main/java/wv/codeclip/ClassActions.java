@@ -5,76 +5,118 @@ import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public class ClassActions {
 
     private static final String NOTES_END_MARK = "\n// === END NOTES ===";
 
     private final JFrame parent;
-    private final JTextArea classTextArea;
+    private final BundleDocument bundle;
     private final JTextArea notesTextArea;
     private final JCheckBox showMissingFileMessages;
     private final ClassRepository repo;
+    private final Supplier<Map<String, String>> bundleSegments;
+    private final DeltaExporter delta = new DeltaExporter();
 
     public ClassActions(
             JFrame parent,
-            JTextArea classTextArea,
+            BundleDocument bundle,
             JTextArea notesTextArea,
             JCheckBox showMissingFileMessages,
-            ClassRepository repo
+            ClassRepository repo,
+            Supplier<Map<String, String>> bundleSegments
     ) {
         this.parent = parent;
-        this.classTextArea = classTextArea;
+        this.bundle = bundle;
         this.notesTextArea = notesTextArea;
         this.showMissingFileMessages = showMissingFileMessages;
         this.repo = repo;
+        this.bundleSegments = bundleSegments;
     }
 
     public void resetAll(JPanel classPanel) {
-        repo.clear();
+        repo.update(ClassRepository.Batch::clear);
+        delta.clear();
         classPanel.removeAll();
-        classTextArea.setText("");
+        bundle.setSegments(List.of());
         classPanel.revalidate();
         classPanel.repaint();
     }
 
     public void copyAll() {
-        String combined = classTextArea.getText()
-                + "\n\n// === Notes ===\n"
-                + notesTextArea.getText()
-                + NOTES_END_MARK;
+        String notes = notesTextArea.getText();
+        StringBuilder combined = new StringBuilder(bundle.getLength() + notes.length() + 64);
+        bundle.appendTo(combined);
+        appendNotes(combined, notes);
 
         Toolkit.getDefaultToolkit()
                 .getSystemClipboard()
-                .setContents(new StringSelection(combined), null);
+                .setContents(new StringSelection(combined.toString()), null);
+        delta.remember(bundleSegments.get());
     }
 
     public void copyCodeOnly() {
         Toolkit.getDefaultToolkit()
                 .getSystemClipboard()
-                .setContents(new StringSelection(classTextArea.getText()), null);
+                .setContents(new StringSelection(bundle.getBundleText()), null);
+        delta.remember(bundleSegments.get());
+    }
+
+    /**
+     * Copies only the classes added or changed since the last copy, plus
+     * the notes. Classes are compared as the bundle shows them, so the
+     * budget, member selections and git diffs apply as they do to Copy All.
+     * Without an earlier copy this is a Copy All.
+     *
+     * @return a status line for the activity log
+     */
+    public String copyDelta(boolean asDiffs) {
+        if (!delta.hasBaseline()) {
+            copyAll();
+            return "Nothing copied yet: copied the full bundle (" + bundle.getLength() + " chars)";
+        }
+
+        Map<String, String> segments = bundleSegments.get();
+        DeltaExporter.Delta d = delta.export(segments, asDiffs);
+        String notes = notesTextArea.getText();
+        StringBuilder combined = new StringBuilder(d.text().length() + notes.length() + 64);
+        combined.append(d.text());
+        appendNotes(combined, notes);
+
+        Toolkit.getDefaultToolkit()
+                .getSystemClipboard()
+                .setContents(new StringSelection(combined.toString()), null);
+        delta.remember(segments);
+
+        return "Copied delta: " + d.added() + " added, " + d.changed() + " changed, "
+                + d.removed() + " removed (" + combined.length() + " chars, full bundle "
+                + bundle.getLength() + ")";
+    }
+
+    private static void appendNotes(StringBuilder sb, String notes) {
+        sb.append("\n\n// === Notes ===\n")
+          .append(notes)
+          .append(NOTES_END_MARK);
     }
 
     public void updateAll(Runnable refreshCallback) {
         SwingWorker<Void, Void> worker = new SwingWorker<>() {
             @Override
             protected Void doInBackground() {
-                for (Map.Entry<String, File> entry : repo.getClassFileMap().entrySet()) {
-                    try {
-                        String updated = Files.readString(entry.getValue().toPath());
-                        repo.getClassCodeMap().put(entry.getKey(), updated);
-                    } catch (IOException ex) {
-                        if (showMissingFileMessages.isSelected()) {
-                            SwingUtilities.invokeLater(() ->
-                                    JOptionPane.showMessageDialog(
-                                            parent,
-                                            "File missing: " + entry.getValue().getAbsolutePath(),
-                                            "Update Warning",
-                                            JOptionPane.WARNING_MESSAGE
-                                    ));
-                        }
+                for (File missing : reload(repo)) {
+                    if (showMissingFileMessages.isSelected()) {
+                        SwingUtilities.invokeLater(() ->
+                                JOptionPane.showMessageDialog(
+                                        parent,
+                                        "File missing: " + missing.getAbsolutePath(),
+                                        "Update Warning",
+                                        JOptionPane.WARNING_MESSAGE
+                                ));
                     }
                 }
                 return null;
@@ -87,4 +129,25 @@ public class ClassActions {
         };
         worker.execute();
     }
+
+    /**
+     * Re-reads every loaded class through the file cache and applies the
+     * new contents as one repository version. Classes removed while
+     * reading are left out.
+     *
+     * @return the files that could not be read
+     */
+    static List<File> reload(ClassRepository repo) {
+        List<File> missing = new ArrayList<>();
+        Map<String, String> updated = new HashMap<>();
+        for (Map.Entry<String, File> entry : repo.snapshot().getClassFileMap().entrySet()) {
+            try {
+                updated.put(entry.getKey(), repo.getFileCache().read(entry.getValue()));
+            } catch (IOException ex) {
+                missing.add(entry.getValue());
+            }
+        }
+        repo.update(batch -> updated.forEach(batch::replaceCode));
+        return missing;
+    }
 }
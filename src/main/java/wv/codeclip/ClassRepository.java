@@ -1,31 +1,435 @@
-// ===== ClassRepository.java =====
 package wv.codeclip;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
+/**
+ * The loaded classes: code, files, enabled state, pins, paste times and
+ * member selections.
+ *
+ * State lives in immutable, versioned {@link Snapshot}s. Readers on any
+ * thread call {@link #snapshot()} and get a consistent view without
+ * locking. Writers pass a {@link Batch} of edits to {@link #update}, which
+ * copies only the maps the batch touches and publishes them atomically as
+ * the next version.
+ *
+ * Listeners receive the delta of every version, one at a time and in
+ * version order. They run on a writer's thread, not necessarily the one
+ * that made the change: when writers race, whichever reaches dispatch
+ * first delivers the queued versions of the others too. A listener that
+ * updates the repository sees its own change delivered after it returns.
+ */
 public class ClassRepository {
 
-    private final Map<String, String> classCodeMap = new LinkedHashMap<>();
-    private final Map<String, File> classFileMap = new HashMap<>();
-    private final Set<String> disabledClasses = new HashSet<>();
+    public interface Listener {
+        void repositoryChanged(Snapshot snapshot, Change change);
+    }
 
-    public Map<String, String> getClassCodeMap() {
-        return classCodeMap;
+    /** What one version changed, by path. */
+    public record Change(
+            long version,
+            Set<String> added,
+            Set<String> removed,
+            Set<String> modified,
+            Set<String> stateChanged,
+            boolean reordered
+    ) {
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && modified.isEmpty()
+                    && stateChanged.isEmpty() && !reordered;
+        }
     }
 
-    public Map<String, File> getClassFileMap() {
-        return classFileMap;
+    private volatile Snapshot current = new Snapshot(0,
+            new LinkedHashMap<>(), new HashMap<>(), new HashSet<>(), new HashSet<>(), new HashMap<>(),
+            new HashMap<>());
+
+    private final Object writeLock = new Object();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Published versions not yet delivered, queued under writeLock so the
+    // queue is in version order
+    private record Delivery(Snapshot snapshot, Change change) {}
+    private final Queue<Delivery> undelivered = new ConcurrentLinkedQueue<>();
+    private final Object dispatchLock = new Object();
+    private boolean dispatching;
+
+    // Shared by every code path that reads source files from disk
+    private final FileContentCache fileCache = new FileContentCache(16_000_000);
+
+    public Snapshot snapshot() {
+        return current;
     }
 
-    public Set<String> getDisabledClasses() {
-        return disabledClasses;
+    /**
+     * Applies {@code edits} as one atomic version. Batches from different
+     * threads are serialized; a batch that changes nothing publishes nothing.
+     * Unless called from a listener, returns once listeners have seen the
+     * change.
+     */
+    public Change update(Consumer<Batch> edits) {
+        Change change;
+        synchronized (writeLock) {
+            Batch batch = new Batch(current);
+            edits.accept(batch);
+            change = batch.delta(current.version + 1);
+            if (change.isEmpty()) {
+                return new Change(current.version, Set.of(), Set.of(), Set.of(), Set.of(), false);
+            }
+            Snapshot next = batch.build(change.version);
+            current = next;
+            undelivered.add(new Delivery(next, change));
+        }
+        dispatch();
+        return change;
     }
 
-    public void clear() {
-        classCodeMap.clear();
-        classFileMap.clear();
-        disabledClasses.clear();
+    private void dispatch() {
+        synchronized (dispatchLock) {
+            // Called from a listener: the loop below delivers it next
+            if (dispatching) return;
+            dispatching = true;
+            try {
+                Delivery d;
+                while ((d = undelivered.poll()) != null) {
+                    for (Listener l : listeners) {
+                        try {
+                            l.repositoryChanged(d.snapshot, d.change);
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            } finally {
+                dispatching = false;
+            }
+        }
     }
-}
 
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public FileContentCache getFileCache() {
+        return fileCache;
+    }
+
+    // ------------------------------------------------------------------
+    // Snapshot
+    // ------------------------------------------------------------------
+
+    public static final class Snapshot {
+        private final long version;
+
+        // Never mutated once published; a batch copies before writing
+        private final Map<String, String> classCode;
+        private final Map<String, File> classFiles;
+        private final Set<String> disabled;
+        private final Set<String> pinned;
+        private final Map<String, Long> pasteTimes;
+        private final Map<String, Set<String>> members;
+
+        private final Map<String, String> classCodeView;
+        private final Map<String, File> classFilesView;
+        private final Set<String> disabledView;
+        private final Set<String> pinnedView;
+        private final Map<String, Long> pasteTimesView;
+        private final Map<String, Set<String>> membersView;
+
+        private Snapshot(
+                long version,
+                Map<String, String> classCode,
+                Map<String, File> classFiles,
+                Set<String> disabled,
+                Set<String> pinned,
+                Map<String, Long> pasteTimes,
+                Map<String, Set<String>> members
+        ) {
+            this.version = version;
+            this.classCode = classCode;
+            this.classFiles = classFiles;
+            this.disabled = disabled;
+            this.pinned = pinned;
+            this.pasteTimes = pasteTimes;
+            this.members = members;
+            this.classCodeView = Collections.unmodifiableMap(classCode);
+            this.classFilesView = Collections.unmodifiableMap(classFiles);
+            this.disabledView = Collections.unmodifiableSet(disabled);
+            this.pinnedView = Collections.unmodifiableSet(pinned);
+            this.pasteTimesView = Collections.unmodifiableMap(pasteTimes);
+            this.membersView = Collections.unmodifiableMap(members);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /** Code by absolute path, in bundle order. */
+        public Map<String, String> getClassCodeMap() {
+            return classCodeView;
+        }
+
+        public Map<String, File> getClassFileMap() {
+            return classFilesView;
+        }
+
+        /** May also hold paths that are not loaded (yet). */
+        public Set<String> getDisabledClasses() {
+            return disabledView;
+        }
+
+        public Set<String> getPinnedClasses() {
+            return pinnedView;
+        }
+
+        public Map<String, Long> getPasteTimes() {
+            return pasteTimesView;
+        }
+
+        /** Selected member signatures of classes that are only partly included. */
+        public Map<String, Set<String>> getMemberSelections() {
+            return membersView;
+        }
+
+        /** The code as it goes into the bundle: the whole class or its selected members. */
+        public String getBundleCode(String path) {
+            String code = classCode.get(path);
+            Set<String> selection = members.get(path);
+            return code == null || selection == null ? code : MemberIndex.of(code).render(selection);
+        }
+
+        public boolean contains(String path) {
+            return classCode.containsKey(path);
+        }
+
+        public boolean isEnabled(String path) {
+            return classCode.containsKey(path) && !disabled.contains(path);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Batch
+    // ------------------------------------------------------------------
+
+    /**
+     * Edits for one version. Each map is copied on its first write, so a
+     * batch that only toggles a class does not copy the code map. Reads
+     * through the batch see its own edits.
+     */
+    public static final class Batch {
+        private final Snapshot base;
+        private LinkedHashMap<String, String> classCode;
+        private HashMap<String, File> classFiles;
+        private HashSet<String> disabled;
+        private HashSet<String> pinned;
+        private HashMap<String, Long> pasteTimes;
+        private HashMap<String, Set<String>> members;
+        private boolean reordered;
+
+        private Batch(Snapshot base) {
+            this.base = base;
+        }
+
+        public boolean contains(String path) {
+            return code().containsKey(path);
+        }
+
+        public boolean isDisabled(String path) {
+            return (disabled != null ? disabled : base.disabled).contains(path);
+        }
+
+        /** Paths in bundle order, including this batch's edits. */
+        public Set<String> paths() {
+            return Collections.unmodifiableSet(code().keySet());
+        }
+
+        /** A copy, so it can be iterated while enabling classes. */
+        public Set<String> disabledPaths() {
+            return new HashSet<>(disabled != null ? disabled : base.disabled);
+        }
+
+        public Batch put(String path, File file, String code) {
+            writableCode().put(path, code);
+            writableFiles().put(path, file);
+            return this;
+        }
+
+        /** Replaces the code of a loaded class; ignored if it was removed meanwhile. */
+        public Batch replaceCode(String path, String code) {
+            if (contains(path)) writableCode().put(path, code);
+            return this;
+        }
+
+        public Batch remove(String path) {
+            if (contains(path)) {
+                writableCode().remove(path);
+                writableFiles().remove(path);
+            }
+            setDisabled(path, false);
+            setPinned(path, false);
+            if ((pasteTimes != null ? pasteTimes : base.pasteTimes).containsKey(path)) {
+                writablePasteTimes().remove(path);
+            }
+            setMembers(path, null);
+            return this;
+        }
+
+        public Batch setDisabled(String path, boolean value) {
+            if (isDisabled(path) != value) {
+                if (value) writableDisabled().add(path); else writableDisabled().remove(path);
+            }
+            return this;
+        }
+
+        public Batch setPinned(String path, boolean value) {
+            boolean isPinned = (pinned != null ? pinned : base.pinned).contains(path);
+            if (isPinned != value) {
+                if (value) writablePinned().add(path); else writablePinned().remove(path);
+            }
+            return this;
+        }
+
+        /** Includes only the members with these signatures; null includes the whole class. */
+        public Batch setMembers(String path, Set<String> signatures) {
+            Set<String> current = (members != null ? members : base.members).get(path);
+            if (!Objects.equals(current, signatures)) {
+                if (signatures == null) writableMembers().remove(path);
+                else writableMembers().put(path, Set.copyOf(signatures));
+            }
+            return this;
+        }
+
+        public Batch markPasted(String path, long time) {
+            writablePasteTimes().put(path, time);
+            return this;
+        }
+
+        /** Moves the listed paths, where loaded, to the front in the given order. */
+        public Batch reorder(List<String> order) {
+            LinkedHashMap<String, String> ordered = new LinkedHashMap<>();
+            for (String path : order) {
+                String c = code().get(path);
+                if (c != null) ordered.put(path, c);
+            }
+            ordered.putAll(code());
+            if (!new ArrayList<>(ordered.keySet()).equals(new ArrayList<>(code().keySet()))) {
+                classCode = ordered;
+                reordered = true;
+            }
+            return this;
+        }
+
+        public Batch clear() {
+            if (!code().isEmpty()) {
+                classCode = new LinkedHashMap<>();
+                classFiles = new HashMap<>();
+            }
+            if (!(disabled != null ? disabled : base.disabled).isEmpty()) disabled = new HashSet<>();
+            if (!(pinned != null ? pinned : base.pinned).isEmpty()) pinned = new HashSet<>();
+            if (!(pasteTimes != null ? pasteTimes : base.pasteTimes).isEmpty()) pasteTimes = new HashMap<>();
+            if (!(members != null ? members : base.members).isEmpty()) members = new HashMap<>();
+            return this;
+        }
+
+        private Map<String, String> code() {
+            return classCode != null ? classCode : base.classCode;
+        }
+
+        private LinkedHashMap<String, String> writableCode() {
+            if (classCode == null) classCode = new LinkedHashMap<>(base.classCode);
+            return classCode;
+        }
+
+        private HashMap<String, File> writableFiles() {
+            if (classFiles == null) classFiles = new HashMap<>(base.classFiles);
+            return classFiles;
+        }
+
+        private HashSet<String> writableDisabled() {
+            if (disabled == null) disabled = new HashSet<>(base.disabled);
+            return disabled;
+        }
+
+        private HashSet<String> writablePinned() {
+            if (pinned == null) pinned = new HashSet<>(base.pinned);
+            return pinned;
+        }
+
+        private HashMap<String, Long> writablePasteTimes() {
+            if (pasteTimes == null) pasteTimes = new HashMap<>(base.pasteTimes);
+            return pasteTimes;
+        }
+
+        private HashMap<String, Set<String>> writableMembers() {
+            if (members == null) members = new HashMap<>(base.members);
+            return members;
+        }
+
+        // Compares with the base, so only the maps actually copied are walked
+        private Change delta(long version) {
+            Set<String> added = new LinkedHashSet<>();
+            Set<String> removed = new LinkedHashSet<>();
+            Set<String> modified = new LinkedHashSet<>();
+            Set<String> stateChanged = new LinkedHashSet<>();
+
+            if (classCode != null) {
+                for (Map.Entry<String, String> e : classCode.entrySet()) {
+                    String old = base.classCode.get(e.getKey());
+                    if (old == null) added.add(e.getKey());
+                    else if (old != e.getValue()) modified.add(e.getKey());
+                }
+                for (String path : base.classCode.keySet()) {
+                    if (!classCode.containsKey(path)) removed.add(path);
+                }
+            }
+            if (classFiles != null) {
+                for (Map.Entry<String, File> e : classFiles.entrySet()) {
+                    if (!e.getValue().equals(base.classFiles.get(e.getKey()))
+                            && !added.contains(e.getKey())) {
+                        modified.add(e.getKey());
+                    }
+                }
+            }
+            symmetricDifference(base.disabled, disabled, stateChanged);
+            symmetricDifference(base.pinned, pinned, stateChanged);
+            if (pasteTimes != null) {
+                symmetricDifference(base.pasteTimes.keySet(), pasteTimes.keySet(), stateChanged);
+                pasteTimes.forEach((path, time) -> {
+                    if (!time.equals(base.pasteTimes.get(path))) stateChanged.add(path);
+                });
+            }
+            if (members != null) {
+                symmetricDifference(base.members.keySet(), members.keySet(), stateChanged);
+                members.forEach((path, sigs) -> {
+                    if (!sigs.equals(base.members.get(path))) stateChanged.add(path);
+                });
+            }
+
+            return new Change(version,
+                    Collections.unmodifiableSet(added),
+                    Collections.unmodifiableSet(removed),
+                    Collections.unmodifiableSet(modified),
+                    Collections.unmodifiableSet(stateChanged),
+                    reordered);
+        }
+
+        private static void symmetricDifference(Set<String> before, Set<String> after, Set<String> out) {
+            if (after == null) return;
+            for (String s : after) if (!before.contains(s)) out.add(s);
+            for (String s : before) if (!after.contains(s)) out.add(s);
+        }
+
+        private Snapshot build(long version) {
+            return new Snapshot(version,
+                    classCode != null ? classCode : base.classCode,
+                    classFiles != null ? classFiles : base.classFiles,
+                    disabled != null ? disabled : base.disabled,
+                    pinned != null ? pinned : base.pinned,
+                    pasteTimes != null ? pasteTimes : base.pasteTimes,
+                    members != null ? members : base.members);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package wv.codeclip;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.datatransfer.*;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Watches the system clipboard and hands Java sources to a consumer.
+ *
+ * Change notification comes from a {@link FlavorListener}, which many
+ * platforms (X11 in particular) only fire when the available flavors
+ * change, so a polling timer backs it up. The watcher only ever reads the
+ * clipboard; it never takes ownership or writes to it. Every check runs
+ * on the EDT and is filtered cheaply before anything is parsed:
+ * <ol>
+ *   <li>non-text flavors are skipped without reading the data,</li>
+ *   <li>texts outside the size limits are skipped,</li>
+ *   <li>a sampled fingerprint (length plus a fixed number of characters)
+ *       rejects content seen last time, confirmed with equals,</li>
+ *   <li>contents this JVM put there, whatever their type, are skipped:
+ *       the system clipboard hands back the very {@link Transferable}
+ *       this process set, while other applications' contents arrive in
+ *       a fresh wrapper on every read,</li>
+ *   <li>a keyword probe over a bounded prefix and suffix looks for a
+ *       package/import/type declaration and a closing brace.</li>
+ * </ol>
+ */
+public class ClipboardWatcher {
+
+    private static final int POLL_MILLIS = 750;
+
+    private static final int MIN_CHARS = 40;
+    private static final int MAX_CHARS = 2_000_000;
+
+    private static final int SAMPLES = 64;
+    private static final int PROBE_CHARS = 4096;
+
+    private static final Pattern DECLARATION = Pattern.compile(
+            "(?m)^\\s*(?:package|import)\\s+[\\w.]+(?:\\.\\*)?\\s*;" +
+            "|\\b(?:class|interface|enum|record)\\s+[A-Z][A-Za-z0-9_]*"
+    );
+
+    private final Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+    private final Consumer<String> sourceConsumer;
+    private final Timer pollTimer = new Timer(POLL_MILLIS, e -> check());
+    private final FlavorListener flavorListener = e -> SwingUtilities.invokeLater(this::check);
+
+    private long lastFingerprint;
+    private String lastText;
+    private Transferable lastLocal;
+    private boolean running;
+    private boolean delivering;
+
+    public ClipboardWatcher(Consumer<String> sourceConsumer) {
+        this.sourceConsumer = sourceConsumer;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Starts watching; whatever is on the clipboard now counts as seen. */
+    public void start() {
+        if (running) return;
+        running = true;
+        String text = readText(contents());
+        if (text != null) remember(text);
+        clipboard.addFlavorListener(flavorListener);
+        pollTimer.start();
+    }
+
+    public void stop() {
+        if (!running) return;
+        running = false;
+        pollTimer.stop();
+        clipboard.removeFlavorListener(flavorListener);
+        lastText = null;
+        lastLocal = null;
+    }
+
+    private void check() {
+        // The paste pipeline may show modal dialogs, which keep the timer running
+        if (!running || delivering) return;
+
+        Transferable t = contents();
+        if (t == null || t == lastLocal) return;
+
+        String text = readText(t);
+        if (text == null || text.length() < MIN_CHARS || text.length() > MAX_CHARS) return;
+        if (fingerprint(text) == lastFingerprint && text.equals(lastText)) return;
+        remember(text);
+
+        // Copied out of this window (the bundle view, a dialog, the log)
+        if (isLocal(t)) {
+            lastLocal = t;
+            return;
+        }
+
+        String source = stripFence(text);
+        if (!looksLikeJava(source)) return;
+
+        delivering = true;
+        try {
+            sourceConsumer.accept(source);
+        } finally {
+            delivering = false;
+        }
+    }
+
+    private Transferable contents() {
+        try {
+            return clipboard.getContents(null);
+        } catch (IllegalStateException e) {
+            return null; // clipboard busy; try again next tick
+        }
+    }
+
+    private static String readText(Transferable t) {
+        try {
+            if (t == null || !t.isDataFlavorSupported(DataFlavor.stringFlavor)) return null;
+            return (String) t.getTransferData(DataFlavor.stringFlavor);
+        } catch (Exception e) {
+            return null; // content gone; try again next tick
+        }
+    }
+
+    // Only asked about new text, so foreign contents are fetched twice per change, not per tick
+    private boolean isLocal(Transferable t) {
+        Transferable again = contents();
+        return again == null || again == t; // can't tell when busy; skipping is the safe side
+    }
+
+    private void remember(String text) {
+        lastFingerprint = fingerprint(text);
+        lastText = text;
+    }
+
+    // --- Prefilter ---
+
+    static long fingerprint(String text) {
+        int n = text.length();
+        long h = n;
+        if (n <= SAMPLES) {
+            for (int i = 0; i < n; i++) h = h * 31 + text.charAt(i);
+            return h;
+        }
+        long step = n / SAMPLES;
+        for (int i = 0; i < SAMPLES; i++) h = h * 31 + text.charAt((int) (i * step));
+        return h * 31 + text.charAt(n - 1);
+    }
+
+    static boolean looksLikeJava(String text) {
+        int end = text.length();
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) end--;
+        if (end == 0 || text.charAt(end - 1) != '}') return false;
+
+        String head = text.substring(0, Math.min(end, PROBE_CHARS));
+        return head.indexOf('{') >= 0 && DECLARATION.matcher(head).find();
+    }
+
+    // A Markdown code fence around the source, as copied from a chat reply
+    static String stripFence(String text) {
+        String s = text.strip();
+        if (!s.startsWith("```")) return text;
+        int firstLine = s.indexOf('\n');
+        if (firstLine < 0) return text;
+        s = s.substring(firstLine + 1);
+        if (s.endsWith("```")) s = s.substring(0, s.length() - 3);
+        return s;
+    }
+}
@@ -1,9 +1,27 @@
 package wv.codeclip;
 
 import javax.swing.SwingUtilities;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CodeClip {
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(CodeClipFrame::new);
+        SingleInstance.Claim claim = new SettingsManager().loadSingleInstance()
+                ? SingleInstance.claim(args)
+                : SingleInstance.Claim.UNAVAILABLE;
+        // Another window is already running and took the arguments
+        if (claim == SingleInstance.Claim.FORWARDED) return;
+
+        SwingUtilities.invokeLater(() -> {
+            CodeClipFrame frame = new CodeClipFrame();
+            if (claim == SingleInstance.Claim.CLAIMED) {
+                SingleInstance.serve(files -> SwingUtilities.invokeLater(() -> frame.openForwarded(files)));
+            }
+
+            List<File> files = new ArrayList<>();
+            for (String arg : args) files.add(new File(arg));
+            if (!files.isEmpty()) frame.openFiles(files);
+        });
     }
 }
@@ -2,29 +2,60 @@ package wv.codeclip;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.FocusListener;
 import java.io.File;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
-public class CodeClipFrame extends JFrame implements FocusListener {
+public class CodeClipFrame extends JFrame {
 
-    private final JTextArea classTextArea = new JTextArea(8, 50);
+    private final BundleDocument bundleDocument = new BundleDocument();
+    private final JTextArea classTextArea = new JTextArea(bundleDocument, null, 8, 50);
     private final JTextArea notesTextArea = new JTextArea();
 
     // --- Source of truth ---
-    private String notesBuffer = "";
-    private String logBuffer   = "";
+    // volatile: the bundle server reads it from its own threads
+    private volatile String notesBuffer = "";
+
+    private final ActivityLog activityLog = new ActivityLog(500);
 
     // Prevent programmatic UI updates from mutating notes
     private boolean internalUpdate = false;
 
     private final JPanel classPanel = new JPanel();
 
+    private final JComboBox<String> workspaceCombo = new JComboBox<>();
+    private boolean updatingWorkspaceCombo = false;
+
+    // Saved classes whose placeholder row is shown while they load
+    private final Set<String> restoringPaths = new LinkedHashSet<>();
+
     private final JCheckBox showMissingFileMessages =
             new JCheckBox("Show missing file messages", true);
     private final JCheckBox alwaysOnTopCheck =
             new JCheckBox("Always on Top", true);
+    private final JCheckBox serveCheck =
+            new JCheckBox("Serve on localhost", false);
+    private final JCheckBox gitChangesCheck =
+            new JCheckBox("Git changes only", false);
+    private final JCheckBox gitDiffsCheck =
+            new JCheckBox("Changes as diffs", false);
+    private final JCheckBox budgetCheck =
+            new JCheckBox("Fit budget", false);
+    private final JCheckBox deltaDiffsCheck =
+            new JCheckBox("Delta as diffs", true);
+    private final JCheckBox watchClipboardCheck =
+            new JCheckBox("Watch clipboard", false);
+    private final JCheckBox compileCheck =
+            new JCheckBox("Compile check", false);
 
     private final JLabel enabledCountLabel = new JLabel("Enabled Classes: 0");
     private final JLabel charCountLabel = new JLabel("Code Characters: 0");
@@ -32,6 +63,35 @@ public class CodeClipFrame extends JFrame implements FocusListener {
     private final ClassRepository repo = new ClassRepository();
     private final ClassActions actions;
     private final SettingsManager settings = new SettingsManager();
+    private final SourceIndex sourceIndex = new SourceIndex();
+    private final SessionJournal journal = new SessionJournal();
+    private final WorkspaceManager workspaces = new WorkspaceManager();
+    private final GitChangeSet gitChanges = new GitChangeSet();
+
+    // Git mode: diff text shown instead of the code, keyed by path
+    private Map<String, String> gitDiffs = Map.of();
+    private Set<String> disabledBeforeGitMode;
+    // Disabled state chosen by hand in git mode, by path; refreshes keep it
+    private final Map<String, Boolean> gitOverrides = new HashMap<>();
+    private boolean gitRefreshRunning = false;
+    private final BundleServer bundleServer =
+            new BundleServer(repo, () -> notesBuffer);
+
+    // Copies of the same class among the loaded ones, updated in the background
+    private final DuplicateDetector duplicates;
+
+    // Kept across pastes so the compiler and dependency classes stay warm
+    private final CompileChecker compileChecker = new CompileChecker(repo);
+
+    // Watch mode: Java sources copied elsewhere go through the paste pipeline
+    private final ClipboardWatcher clipboardWatcher;
+
+    // Budget mode: what the last refreshText() packed, null when off
+    private final BundlePacker packer = new BundlePacker();
+    private BundlePacker.Plan packPlan;
+
+    // What the bundle shows for each included class, in order
+    private Map<String, String> bundleSegments = Map.of();
 
     private static final Color ENABLED_COLOR  = new Color(240, 240, 240);
     private static final Color DISABLED_COLOR = new Color(210, 210, 210);
@@ -40,12 +100,22 @@ public class CodeClipFrame extends JFrame implements FocusListener {
 
         actions = new ClassActions(
                 this,
-                classTextArea,
+                bundleDocument,
                 notesTextArea,
                 showMissingFileMessages,
-                repo
+                repo,
+                () -> bundleSegments
         );
 
+        duplicates = new DuplicateDetector(repo, this::duplicatesChanged);
+
+        clipboardWatcher = new ClipboardWatcher(source -> {
+            newPasteHandler().handleWatchedSource(source);
+            refreshPanels();
+        });
+
+        repo.getFileCache().setMaxFileBytes(settings.loadMaxFileBytes());
+
         setTitle("Code Clip");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setBounds(settings.loadFrameBounds());
@@ -56,21 +126,76 @@ public class CodeClipFrame extends JFrame implements FocusListener {
 
         setAlwaysOnTop(alwaysOnTopCheck.isSelected());
 
-        // Restore persisted state
-        notesBuffer = settings.loadNotes();
+        String activeWorkspace = settings.loadActiveWorkspace();
+        for (String name : settings.loadWorkspaceNames()) {
+            if (name.equals(activeWorkspace)) continue;
+            workspaces.restore(
+                    name,
+                    settings.loadWorkspaceClasses(name),
+                    settings.loadWorkspaceDisabled(name),
+                    settings.loadWorkspacePinned(name),
+                    settings.loadWorkspaceNotes(name),
+                    settings.loadWorkspaceMembers(name)
+            );
+        }
+        workspaces.setActive(activeWorkspace);
+        refreshWorkspaceCombo();
+
+        // Restore persisted state, plus whatever the journal recorded
+        // after it if the last session did not shut down cleanly
+        SessionJournal.State restored = journal.recover(
+                settings.loadNotes(), settings.loadClassPaths(), settings.loadDisabledPaths(),
+                settings.loadPinnedPaths(), settings.loadMemberSelections());
+        repo.update(batch -> {
+            for (String path : restored.disabled()) batch.setDisabled(path, true);
+            for (String path : restored.pinned()) batch.setPinned(path, true);
+        });
+        notesBuffer = restored.notes();
         renderNotes();
 
-        for (String path : settings.loadClassPaths()) {
-            File f = new File(path);
-            if (f.exists()) addClass(f);
+        // The journal follows the class list, disabled and pinned classes and
+        // selections through the repository deltas
+        repo.addListener((snapshot, change) -> SwingUtilities.invokeLater(() -> {
+            journal.classesAdded(change.added());
+            change.removed().forEach(journal::classRemoved);
+            for (String path : change.stateChanged()) {
+                journal.disabledChanged(path, snapshot.getDisabledClasses().contains(path));
+                journal.pinnedChanged(path, snapshot.getPinnedClasses().contains(path));
+                if (snapshot.contains(path)) {
+                    journal.membersChanged(path, snapshot.getMemberSelections().get(path));
+                }
+            }
+        }));
+
+        repo.addListener((snapshot, change) -> compileChecker.repositoryChanged());
+
+        // Pastes resolve only within the projects of the loaded classes
+        repo.addListener((snapshot, change) -> {
+            if (!change.added().isEmpty() || !change.removed().isEmpty()) {
+                sourceIndex.setLoadedFiles(snapshot.getClassFileMap().values());
+            }
+        });
+
+        restoreClasses(restored.classes(), restored.classes(), restored.members());
+        if (restored.recovered()) {
+            appendLog("Recovered unsaved session from journal");
         }
+        prefetchWorkspaces();
 
-        notesTextArea.addFocusListener(this);
+        serveCheck.setSelected(settings.loadServerEnabled());
+        updateServer();
+
+        watchClipboardCheck.setSelected(settings.loadClipboardWatch());
+        updateClipboardWatch();
+
+        compileCheck.setSelected(settings.loadCompileCheck() && compileChecker.isAvailable());
+        compileChecker.setEnabled(compileCheck.isSelected(), settings.loadCompileClasspath());
 
         notesTextArea.getDocument().addDocumentListener(
-                new SimpleDocumentListener(() -> {
+                new SimpleDocumentListener(e -> {
                     if (!internalUpdate) {
                         notesBuffer = notesTextArea.getText();
+                        journalNotesEdit(e);
                     }
                 })
         );
@@ -78,32 +203,29 @@ public class CodeClipFrame extends JFrame implements FocusListener {
         addWindowListener(new java.awt.event.WindowAdapter() {
             @Override
             public void windowClosing(java.awt.event.WindowEvent e) {
-                clearTempLogs();
                 settings.saveFrameBounds(getBounds());
-                settings.saveNotes(notesBuffer);
-                settings.saveClassPaths(
-                        repo.getClassCodeMap().keySet().toArray(new String[0])
-                );
-                settings.saveProperties();
+                settings.saveServerEnabled(serveCheck.isSelected());
+                settings.saveClipboardWatch(watchClipboardCheck.isSelected());
+                settings.saveCompileCheck(compileCheck.isSelected());
+                clipboardWatcher.stop();
+                saveSession();
+                if (settings.saveProperties()) {
+                    journal.discard();
+                } else {
+                    // The journal is all that holds this session now
+                    journal.close();
+                }
+            }
+
+            @Override
+            public void windowActivated(java.awt.event.WindowEvent e) {
+                refreshGitChanges(false);
             }
         });
 
         setVisible(true);
     }
 
-    // ------------------------------------------------------------------
-    // FocusListener (REQUIRED + BEHAVIOR RESTORED)
-    // ------------------------------------------------------------------
-
-    public void focusGained(java.awt.event.FocusEvent e) {
-        clearTempLogs();
-    }
-
-    @Override
-    public void focusLost(java.awt.event.FocusEvent e) {
-        // no-op
-    }
-
     // ------------------------------------------------------------------
     // UI
     // ------------------------------------------------------------------
@@ -116,6 +238,23 @@ public class CodeClipFrame extends JFrame implements FocusListener {
         JPanel codePanel = new JPanel(new BorderLayout());
         codePanel.add(new JScrollPane(classTextArea), BorderLayout.CENTER);
 
+        JPanel workspaceBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton newWorkspace = new JButton("New");
+        JButton deleteWorkspace = new JButton("Delete");
+        workspaceBar.add(new JLabel("Workspace:"));
+        workspaceBar.add(workspaceCombo);
+        workspaceBar.add(newWorkspace);
+        workspaceBar.add(deleteWorkspace);
+        codePanel.add(workspaceBar, BorderLayout.NORTH);
+
+        workspaceCombo.addActionListener(e -> {
+            if (!updatingWorkspaceCombo && workspaceCombo.getSelectedItem() != null) {
+                switchWorkspace((String) workspaceCombo.getSelectedItem());
+            }
+        });
+        newWorkspace.addActionListener(e -> createWorkspace());
+        deleteWorkspace.addActionListener(e -> deleteWorkspace());
+
         JPanel statsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         statsPanel.add(enabledCountLabel);
         statsPanel.add(charCountLabel);
@@ -126,11 +265,18 @@ public class CodeClipFrame extends JFrame implements FocusListener {
         notesTextArea.setLineWrap(true);
         JScrollPane notesScroll = new JScrollPane(notesTextArea);
 
+        JSplitPane notesSplit = new JSplitPane(
+                JSplitPane.VERTICAL_SPLIT,
+                notesScroll,
+                new JScrollPane(activityLog.getView())
+        );
+        notesSplit.setResizeWeight(0.8);
+
         classPanel.setLayout(new BoxLayout(classPanel, BoxLayout.Y_AXIS));
         JScrollPane classScroll = new JScrollPane(classPanel);
 
         JSplitPane split =
-                new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, notesScroll, classScroll);
+                new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, notesSplit, classScroll);
         split.setResizeWeight(0.7);
 
         add(split, BorderLayout.CENTER);
@@ -144,34 +290,65 @@ public class CodeClipFrame extends JFrame implements FocusListener {
         JButton enableAll = new JButton("Enable All");
         JButton disableAll = new JButton("Disable All");
         JButton pasteClass = new JButton("Paste Class");
-
-        reset.addActionListener(e -> actions.resetAll(classPanel));
-        update.addActionListener(e -> actions.updateAll(this::refreshText));
+        JButton copyDelta = new JButton("Copy Delta");
+        JButton keepOne = new JButton("Keep One per Cluster");
+
+        reset.addActionListener(e -> {
+            // Rows still loading never reached the repository, journal them here
+            restoringPaths.forEach(journal::classRemoved);
+            restoringPaths.clear();
+            actions.resetAll(classPanel);
+            refreshText();
+        });
+        update.addActionListener(e -> actions.updateAll(() -> {
+            sourceIndex.refresh();
+            refreshText();
+            refreshGitChanges(true);
+            appendLog("Updated " + repo.snapshot().getClassFileMap().size() + " classes, "
+                    + repo.getFileCache().describeStats());
+        }));
         copy.addActionListener(e -> actions.copyAll());
         copyCode.addActionListener(e -> actions.copyCodeOnly());
+        copyDelta.addActionListener(e ->
+                appendLog(actions.copyDelta(deltaDiffsCheck.isSelected())));
 
         alwaysOnTopCheck.addActionListener(e ->
                 setAlwaysOnTop(alwaysOnTopCheck.isSelected()));
+        serveCheck.addActionListener(e -> updateServer());
+        watchClipboardCheck.addActionListener(e -> updateClipboardWatch());
+        compileCheck.addActionListener(e -> toggleCompileCheck());
+        gitChangesCheck.addActionListener(e -> toggleGitMode());
+        gitDiffsCheck.addActionListener(e -> {
+            if (!gitDiffsCheck.isSelected()) {
+                gitDiffs = Map.of();
+                refreshText();
+            }
+            refreshGitChanges(false);
+        });
+        budgetCheck.addActionListener(e -> toggleBudget());
 
         enableAll.addActionListener(e -> {
-            repo.getDisabledClasses().clear();
+            repo.update(batch -> {
+                for (String path : batch.disabledPaths()) batch.setDisabled(path, false);
+            });
+            repo.snapshot().getClassCodeMap().keySet().forEach(path -> rememberGitOverride(path, false));
             refreshText();
             refreshPanels();
         });
 
         disableAll.addActionListener(e -> {
-            repo.getDisabledClasses().addAll(repo.getClassCodeMap().keySet());
+            repo.update(batch -> {
+                for (String path : batch.paths()) batch.setDisabled(path, true);
+            });
+            repo.snapshot().getClassCodeMap().keySet().forEach(path -> rememberGitOverride(path, true));
             refreshText();
             refreshPanels();
         });
 
+        keepOne.addActionListener(e -> keepOnePerCluster());
+
         pasteClass.addActionListener(e -> {
-            new PasteClassHandler(
-                    repo,
-                    this,
-                    this::refreshText,
-                    this::appendTempLog
-            ).handlePasteFromClipboard();
+            newPasteHandler().handlePasteFromClipboard();
             refreshPanels();
         });
 
@@ -179,34 +356,453 @@ public class CodeClipFrame extends JFrame implements FocusListener {
         buttons.add(update);
         buttons.add(copy);
         buttons.add(copyCode);
+        buttons.add(copyDelta);
+        buttons.add(deltaDiffsCheck);
         buttons.add(enableAll);
         buttons.add(disableAll);
         buttons.add(showMissingFileMessages);
         buttons.add(alwaysOnTopCheck);
         buttons.add(pasteClass);
+        buttons.add(serveCheck);
+        buttons.add(gitChangesCheck);
+        buttons.add(gitDiffsCheck);
+        buttons.add(budgetCheck);
+        buttons.add(watchClipboardCheck);
+        buttons.add(compileCheck);
+        buttons.add(keepOne);
 
         add(buttons, BorderLayout.SOUTH);
     }
 
+    private PasteClassHandler newPasteHandler() {
+        return new PasteClassHandler(
+                repo,
+                sourceIndex,
+                this,
+                this::refreshText,
+                this::appendLog,
+                compileCheck.isSelected() ? compileChecker : null
+        );
+    }
+
+    private void duplicatesChanged(List<DuplicateDetector.Cluster> clusters) {
+        refreshPanels();
+        if (clusters.isEmpty()) return;
+
+        int classes = 0;
+        for (DuplicateDetector.Cluster c : clusters) classes += c.paths().size();
+        appendLog("Duplicates: " + clusters.size() + " cluster(s), " + classes + " classes");
+        for (int i = 0; i < Math.min(10, clusters.size()); i++) {
+            DuplicateDetector.Cluster c = clusters.get(i);
+            List<String> names = new ArrayList<>();
+            for (String path : c.paths()) names.add(new File(path).getName());
+            appendLog("  #" + (i + 1) + " " + c.reason() + ": " + String.join(", ", names));
+        }
+    }
+
+    // Per cluster keeps a pinned, then an enabled, then a non-test/generated copy
+    private void keepOnePerCluster() {
+        List<DuplicateDetector.Cluster> clusters = duplicates.getClusters();
+        if (clusters.isEmpty()) {
+            appendLog("No duplicate classes loaded");
+            return;
+        }
+
+        ClassRepository.Snapshot snapshot = repo.snapshot();
+        List<String> toDisable = new ArrayList<>();
+        for (DuplicateDetector.Cluster c : clusters) {
+            String keep = null;
+            int best = -1;
+            for (String path : c.paths()) {
+                int score = (snapshot.getPinnedClasses().contains(path) ? 4 : 0)
+                        + (snapshot.isEnabled(path) ? 2 : 0)
+                        + (isSecondaryCopy(path) ? 0 : 1);
+                if (score > best) {
+                    best = score;
+                    keep = path;
+                }
+            }
+            for (String path : c.paths()) {
+                if (!path.equals(keep) && snapshot.isEnabled(path)) toDisable.add(path);
+            }
+        }
+
+        repo.update(batch -> toDisable.forEach(path -> batch.setDisabled(path, true)));
+        refreshText();
+        refreshPanels();
+        appendLog("Kept one class per duplicate cluster, disabled " + toDisable.size());
+    }
+
+    private static boolean isSecondaryCopy(String path) {
+        String p = path.replace('\\', '/').toLowerCase(Locale.ROOT);
+        return p.contains("/test/") || p.contains("/generated") || p.contains("/vendor")
+                || p.contains("/target/") || p.contains("/build/");
+    }
+
+    private void toggleCompileCheck() {
+        if (compileCheck.isSelected() && !compileChecker.isAvailable()) {
+            compileCheck.setSelected(false);
+            JOptionPane.showMessageDialog(
+                    this,
+                    "No Java compiler is available.\nRun CodeClip on a JDK rather than a JRE.",
+                    "Compile Check",
+                    JOptionPane.ERROR_MESSAGE
+            );
+            return;
+        }
+        compileChecker.setEnabled(compileCheck.isSelected(), settings.loadCompileClasspath());
+    }
+
+    private void updateClipboardWatch() {
+        if (watchClipboardCheck.isSelected() == clipboardWatcher.isRunning()) return;
+        if (watchClipboardCheck.isSelected()) {
+            clipboardWatcher.start();
+            appendLog("Watching the clipboard for Java classes");
+        } else {
+            clipboardWatcher.stop();
+            appendLog("Stopped watching the clipboard");
+        }
+    }
+
+    private void updateServer() {
+        if (!serveCheck.isSelected()) {
+            if (bundleServer.isRunning()) {
+                bundleServer.stop();
+                appendLog("Bundle server stopped");
+            }
+            return;
+        }
+        if (bundleServer.isRunning()) return;
+
+        int port = settings.loadServerPort();
+        try {
+            bundleServer.start(port);
+            appendLog("Bundle server: http://127.0.0.1:" + port + "/bundle");
+        } catch (java.io.IOException ex) {
+            serveCheck.setSelected(false);
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Could not start bundle server on port " + port + ":\n" + ex.getMessage(),
+                    "Server Error",
+                    JOptionPane.ERROR_MESSAGE
+            );
+        }
+    }
+
     // ------------------------------------------------------------------
-    // Logs & Notes (CORRECT, SAFE)
+    // Git changes mode
     // ------------------------------------------------------------------
 
-    public void appendTempLog(String message) {
-        logBuffer += message + "\n";
+    private void toggleGitMode() {
+        if (gitChangesCheck.isSelected()) {
+            String base = (String) JOptionPane.showInputDialog(
+                    this,
+                    "Compare working tree and index against ref:",
+                    "Git Changes Only",
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    null,
+                    settings.loadGitBaseRef()
+            );
+            if (base == null) {
+                gitChangesCheck.setSelected(false);
+                return;
+            }
+            settings.saveGitBaseRef(base.isBlank() ? "HEAD" : base.trim());
+            gitOverrides.clear();
+            disabledBeforeGitMode = new HashSet<>(repo.snapshot().getDisabledClasses());
+            refreshGitChanges(true);
+        } else {
+            gitDiffs = Map.of();
+            gitOverrides.clear();
+            if (disabledBeforeGitMode != null) {
+                Set<String> before = disabledBeforeGitMode;
+                repo.update(batch -> {
+                    for (String path : batch.disabledPaths()) batch.setDisabled(path, false);
+                    for (String path : before) {
+                        if (batch.contains(path)) batch.setDisabled(path, true);
+                    }
+                });
+                disabledBeforeGitMode = null;
+            }
+            refreshText();
+            refreshPanels();
+        }
+    }
+
+    private void rememberGitOverride(String path, boolean disabled) {
+        if (gitChangesCheck.isSelected()) gitOverrides.put(path, disabled);
+    }
+
+    private void refreshGitChanges(boolean force) {
+        if (!gitChangesCheck.isSelected() || gitRefreshRunning) return;
+
+        List<File> files = new ArrayList<>(repo.snapshot().getClassFileMap().values());
+        if (files.isEmpty()) {
+            appendLog("Git changes: load a class first so the repository can be found");
+            return;
+        }
+        String base = settings.loadGitBaseRef();
+        boolean withDiffs = gitDiffsCheck.isSelected();
+
+        gitRefreshRunning = true;
+        new SwingWorker<GitChangeSet.Result, Void>() {
+            @Override
+            protected GitChangeSet.Result doInBackground() throws Exception {
+                return gitChanges.collect(files, base, withDiffs, force);
+            }
+
+            @Override
+            protected void done() {
+                gitRefreshRunning = false;
+                try {
+                    applyGitChanges(get());
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    appendLog("Git changes failed: " + cause.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void applyGitChanges(GitChangeSet.Result result) {
+        if (!gitChangesCheck.isSelected()) return;
+
+        Set<String> changed = result.changedPaths();
+        gitDiffs = gitDiffsCheck.isSelected() ? result.diffs() : Map.of();
+
+        repo.update(batch -> {
+            for (String path : batch.paths()) {
+                Boolean override = gitOverrides.get(path);
+                batch.setDisabled(path, override != null ? override : !changed.contains(path));
+            }
+        });
+        for (String path : changed) {
+            if (!repo.snapshot().contains(path)) {
+                addClass(new File(path));
+            }
+        }
+        refreshText();
+        refreshPanels();
+    }
+
+    // ------------------------------------------------------------------
+    // Budget packing
+    // ------------------------------------------------------------------
+
+    private void toggleBudget() {
+        if (budgetCheck.isSelected()) {
+            String input = (String) JOptionPane.showInputDialog(
+                    this,
+                    "Bundle budget in characters, or tokens with a 't' suffix (e.g. 32000t):",
+                    "Fit Budget",
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    null,
+                    String.valueOf(settings.loadBudgetChars())
+            );
+            Integer chars = input == null ? null : parseBudget(input);
+            if (chars == null) {
+                if (input != null) {
+                    JOptionPane.showMessageDialog(this,
+                            "Invalid budget: " + input,
+                            "Fit Budget", JOptionPane.ERROR_MESSAGE);
+                }
+                budgetCheck.setSelected(false);
+                return;
+            }
+            settings.saveBudgetChars(chars);
+        }
+        refreshText();
+        refreshPanels();
+    }
+
+    // About four characters per token for source code
+    private static Integer parseBudget(String input) {
+        String s = input.trim().toLowerCase().replace("_", "").replace(",", "");
+        int factor = 1;
+        if (s.endsWith("t")) {
+            s = s.substring(0, s.length() - 1).trim();
+            factor = 4;
+        }
+        try {
+            long chars = Long.parseLong(s) * factor;
+            return chars > 0 && chars <= Integer.MAX_VALUE ? (int) chars : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Workspaces
+    // ------------------------------------------------------------------
+
+    private void switchWorkspace(String name) {
+        // Rows still being read belong to the active workspace
+        if (name.equals(workspaces.getActive()) || !restoringPaths.isEmpty()) return;
+
+        workspaces.capture(repo, notesBuffer);
+        List<String> missing = workspaces.activate(name, repo);
+
+        classPanel.removeAll();
+        for (String path : repo.snapshot().getClassCodeMap().keySet()) {
+            addClassPanel(path, new File(path).getName());
+        }
+        classPanel.revalidate();
+        classPanel.repaint();
+
+        notesBuffer = workspaces.get(name).getNotes();
         renderNotes();
+        journal.notesReplaced(notesBuffer);
+
+        // Content and bundle come from the shared store, no disk access;
+        // the cached bundle is the plain one, without packing or git diffs
+        if (packPlan != null || !gitDiffs.isEmpty()) {
+            refreshText();
+        } else {
+            showBundle(workspaces.bundleFor(name));
+            refreshStats();
+        }
+        refreshWorkspaceCombo();
+
+        // Read like a restored session, so they keep their place and state
+        restoreClasses(missing, workspaces.get(name).getClasses(), Map.of());
+        saveSession();
+        appendLog("Workspace: " + name
+                + (missing.isEmpty() ? "" : " (loading " + missing.size() + " classes)"));
     }
 
-    public void clearTempLogs() {
-        if (!logBuffer.isEmpty()) {
-            logBuffer = "";
-            renderNotes();
+    private void createWorkspace() {
+        if (!restoringPaths.isEmpty()) return;
+        String name = JOptionPane.showInputDialog(this, "Workspace name:", "New Workspace",
+                JOptionPane.QUESTION_MESSAGE);
+        if (name == null) return;
+        name = name.trim();
+
+        if (name.isEmpty() || name.contains("|") || !workspaces.create(name)) {
+            JOptionPane.showMessageDialog(this,
+                    "Invalid or existing workspace name: " + name,
+                    "New Workspace", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        switchWorkspace(name);
+    }
+
+    private void deleteWorkspace() {
+        if (!restoringPaths.isEmpty()) return;
+        String name = workspaces.getActive();
+        List<String> names = workspaces.getNames();
+        if (names.size() < 2) {
+            JOptionPane.showMessageDialog(this,
+                    "The last workspace cannot be deleted.",
+                    "Delete Workspace", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        int choice = JOptionPane.showConfirmDialog(this,
+                "Delete workspace \"" + name + "\"? Files on disk are not touched.",
+                "Delete Workspace", JOptionPane.OK_CANCEL_OPTION);
+        if (choice != JOptionPane.OK_OPTION) return;
+
+        String other = names.get(0).equals(name) ? names.get(1) : names.get(0);
+        switchWorkspace(other);
+        workspaces.remove(name);
+        settings.removeWorkspace(name);
+        refreshWorkspaceCombo();
+        saveSession();
+    }
+
+    private void refreshWorkspaceCombo() {
+        updatingWorkspaceCombo = true;
+        workspaceCombo.removeAllItems();
+        for (String name : workspaces.getNames()) {
+            workspaceCombo.addItem(name);
+        }
+        workspaceCombo.setSelectedItem(workspaces.getActive());
+        updatingWorkspaceCombo = false;
+    }
+
+    // Reads the classes of inactive workspaces once in the background so
+    // the first switch to them needs no disk access either.
+    private void prefetchWorkspaces() {
+        Set<String> paths = workspaces.unloadedPaths();
+        if (paths.isEmpty()) return;
+
+        new SwingWorker<Void, String[]>() {
+            @Override
+            protected Void doInBackground() {
+                for (String path : paths) {
+                    try {
+                        publish(new String[]{path, repo.getFileCache().read(new File(path))});
+                    } catch (IOException ignored) {}
+                }
+                return null;
+            }
+
+            @Override
+            protected void process(List<String[]> chunks) {
+                for (String[] loaded : chunks) {
+                    workspaces.storeContent(loaded[0], loaded[1]);
+                }
+            }
+        }.execute();
+    }
+
+    private void saveSession() {
+        workspaces.capture(repo, notesBuffer);
+        String active = workspaces.getActive();
+
+        for (String name : workspaces.getNames()) {
+            if (name.equals(active)) continue;
+            WorkspaceManager.Workspace ws = workspaces.get(name);
+            settings.saveWorkspace(
+                    name,
+                    ws.getClasses().toArray(new String[0]),
+                    ws.getDisabled().toArray(new String[0]),
+                    ws.getPinned().toArray(new String[0]),
+                    ws.getNotes(),
+                    ws.getMembers()
+            );
+        }
+        settings.removeWorkspace(active);
+        settings.saveWorkspaceNames(workspaces.getNames().toArray(new String[0]), active);
+
+        // Classes still being restored are part of the session too
+        ClassRepository.Snapshot snapshot = repo.snapshot();
+        Set<String> classes = new LinkedHashSet<>(snapshot.getClassCodeMap().keySet());
+        classes.addAll(restoringPaths);
+
+        settings.saveNotes(notesBuffer);
+        settings.saveClassPaths(classes.toArray(new String[0]));
+        settings.saveDisabledPaths(
+                snapshot.getDisabledClasses().toArray(new String[0])
+        );
+        settings.savePinnedPaths(snapshot.getPinnedClasses().toArray(new String[0]));
+        settings.saveMemberSelections(snapshot.getMemberSelections());
+        // Off the EDT; windowClosing writes synchronously once more
+        settings.savePropertiesLater();
+    }
+
+    // ------------------------------------------------------------------
+    // Logs & Notes
+    // ------------------------------------------------------------------
+
+    public void appendLog(String message) {
+        activityLog.append(message);
+    }
+
+    private void journalNotesEdit(javax.swing.event.DocumentEvent e) {
+        int offset = e.getOffset();
+        if (e.getType() == javax.swing.event.DocumentEvent.EventType.INSERT) {
+            journal.notesInserted(offset, notesBuffer.substring(offset, offset + e.getLength()));
+        } else if (e.getType() == javax.swing.event.DocumentEvent.EventType.REMOVE) {
+            journal.notesRemoved(offset, e.getLength());
         }
     }
 
     private void renderNotes() {
         internalUpdate = true;
-        notesTextArea.setText(logBuffer + notesBuffer);
+        notesTextArea.setText(notesBuffer);
         internalUpdate = false;
     }
 
@@ -218,24 +814,157 @@ public class CodeClipFrame extends JFrame implements FocusListener {
         new FileDropHandler(this::addClass).install(this);
     }
 
+    /**
+     * Restores the saved session without blocking the EDT: placeholder rows
+     * appear at once, enabled classes are read first and disabled ones
+     * after them at low priority, and the bundle is assembled once, in the
+     * saved {@code order}, when everything is read. Workspace switching
+     * waits.
+     */
+    private void restoreClasses(List<String> paths, List<String> order,
+                                Map<String, Set<String>> selections) {
+        if (paths.isEmpty()) return;
+
+        for (String path : paths) {
+            restoringPaths.add(path);
+            addClassPanel(path, new File(path).getName());
+        }
+        workspaceCombo.setEnabled(false);
+
+        Set<String> disabled = repo.snapshot().getDisabledClasses();
+        List<String> enabledFirst = new ArrayList<>(paths);
+        enabledFirst.sort(Comparator.comparing(disabled::contains));
+
+        new SwingWorker<List<String>, String[]>() {
+            @Override
+            protected List<String> doInBackground() {
+                List<String> missing = new ArrayList<>();
+                Thread thread = Thread.currentThread();
+                int priority = thread.getPriority();
+                try {
+                    for (String path : enabledFirst) {
+                        if (disabled.contains(path)) {
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                        }
+                        try {
+                            publish(new String[]{path, repo.getFileCache().read(new File(path))});
+                        } catch (IOException ex) {
+                            missing.add(path);
+                        }
+                    }
+                } finally {
+                    thread.setPriority(priority);
+                }
+                return missing;
+            }
+
+            @Override
+            protected void process(List<String[]> chunks) {
+                List<String[]> accepted = new ArrayList<>();
+                for (String[] loaded : chunks) {
+                    // skip rows deleted meanwhile
+                    if (restoringPaths.remove(loaded[0])) accepted.add(loaded);
+                }
+                repo.update(batch -> {
+                    for (String[] loaded : accepted) {
+                        batch.put(loaded[0], new File(loaded[0]), loaded[1]);
+                    }
+                });
+                for (String[] loaded : accepted) {
+                    File file = new File(loaded[0]);
+                    if (repo.getFileCache().isTruncated(file)) {
+                        appendLog("Large file, loaded a truncated preview: " + loaded[0]);
+                    }
+                }
+                refreshPanels();
+            }
+
+            @Override
+            protected void done() {
+                List<String> missing;
+                try {
+                    missing = get();
+                } catch (Exception ex) {
+                    missing = List.of();
+                    appendLog("Restoring classes failed: " + ex.getCause());
+                }
+
+                List<String> gone = new ArrayList<>();
+                for (String path : missing) {
+                    if (restoringPaths.remove(path)) {
+                        gone.add(path);
+                        removeClassPanel(path);
+                        // Never loaded, so no repository delta journals it
+                        journal.classRemoved(path);
+                    }
+                }
+
+                // Saved order first, then whatever was dropped in meanwhile
+                repo.update(batch -> {
+                    gone.forEach(batch::remove);
+                    batch.reorder(order);
+                    selections.forEach((path, signatures) -> {
+                        if (batch.contains(path)) batch.setMembers(path, signatures);
+                    });
+                });
+
+                workspaceCombo.setEnabled(true);
+                refreshText();
+                refreshPanelOrder();
+                refreshPanels();
+                saveSession();
+                appendLog("Restored " + (paths.size() - missing.size()) + " classes"
+                        + (missing.isEmpty() ? "" : ", " + missing.size() + " missing on disk"));
+            }
+        }.execute();
+    }
+
+    /** Adds files and directories named on the command line. */
+    public void openFiles(List<File> files) {
+        new FileDropHandler(this::addClass).handleFiles(files);
+    }
+
+    /** Adds files and directories handed over by another launch, then comes to the front. */
+    public void openForwarded(List<File> files) {
+        openFiles(files);
+        if (!files.isEmpty()) appendLog("Opened " + files.size() + " item(s) from another launch");
+
+        if ((getExtendedState() & ICONIFIED) != 0) setExtendedState(getExtendedState() & ~ICONIFIED);
+        toFront();
+        requestFocus();
+    }
+
     private void addClass(File file) {
         String path = file.getAbsolutePath();
-        if (repo.getClassCodeMap().containsKey(path)) return;
+        if (repo.snapshot().contains(path) || restoringPaths.contains(path)) return;
+        String workspace = workspaces.getActive();
 
         SwingWorker<String, Void> worker = new SwingWorker<>() {
             @Override
             protected String doInBackground() throws Exception {
-                return Files.readString(file.toPath());
+                return repo.getFileCache().read(file);
             }
 
             @Override
             protected void done() {
                 try {
-                    repo.getClassCodeMap().put(path, get());
-                    repo.getClassFileMap().put(path, file);
+                    if (!workspace.equals(workspaces.getActive())) {
+                        // switched away while loading: the class belongs to the workspace it was dropped on
+                        workspaces.addClass(workspace, path, get());
+                        saveSession();
+                        return;
+                    }
+                    String code = get();
+                    repo.update(batch -> batch.put(path, file, code));
                     addClassPanel(path, file.getName());
                     refreshText();
-                } catch (Exception ignored) {}
+                    if (repo.getFileCache().isTruncated(file)) {
+                        appendLog("Large file, loaded a truncated preview: " + path);
+                    }
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    appendLog("Could not load " + path + ": " + cause);
+                }
             }
         };
         worker.execute();
@@ -246,29 +975,32 @@ public class CodeClipFrame extends JFrame implements FocusListener {
     // ------------------------------------------------------------------
 
     private void addClassPanel(String path, String name) {
+        ClassRepository.Snapshot snapshot = repo.snapshot();
+        boolean disabled = snapshot.getDisabledClasses().contains(path);
+
         JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         panel.setOpaque(true);
-        panel.setBackground(ENABLED_COLOR);
+        panel.setBackground(disabled ? DISABLED_COLOR : ENABLED_COLOR);
+        panel.putClientProperty("path", path);
 
-        JLabel label = new JLabel(name);
-        JButton toggle = new JButton("Disable");
+        JLabel label = new JLabel(name + labelSuffix(path, disabled));
+        JButton toggle = new JButton(disabled ? "Enable" : "Disable");
         JButton copy = new JButton("Copy");
         JButton delete = new JButton("Delete");
+        JButton pin = new JButton(snapshot.getPinnedClasses().contains(path) ? "Unpin" : "Pin");
+        JButton members = new JButton("Members");
 
         toggle.addActionListener(e -> {
-            if (repo.getDisabledClasses().remove(path)) {
-                toggle.setText("Disable");
-                panel.setBackground(ENABLED_COLOR);
-            } else {
-                repo.getDisabledClasses().add(path);
-                toggle.setText("Enable");
-                panel.setBackground(DISABLED_COLOR);
-            }
+            boolean wasDisabled = repo.snapshot().getDisabledClasses().contains(path);
+            repo.update(batch -> batch.setDisabled(path, !wasDisabled));
+            rememberGitOverride(path, !wasDisabled);
+            toggle.setText(wasDisabled ? "Disable" : "Enable");
+            panel.setBackground(wasDisabled ? ENABLED_COLOR : DISABLED_COLOR);
             refreshText();
         });
 
         copy.addActionListener(e -> {
-            String code = repo.getClassCodeMap().get(path);
+            String code = repo.snapshot().getBundleCode(path);
             if (code != null) {
                 String text =
                         "// ===== " + name + " =====\n" + code + "\n";
@@ -282,19 +1014,40 @@ public class CodeClipFrame extends JFrame implements FocusListener {
         });
 
         delete.addActionListener(e -> {
-            repo.getClassCodeMap().remove(path);
-            repo.getClassFileMap().remove(path);
-            repo.getDisabledClasses().remove(path);
+            repo.update(batch -> batch.remove(path));
+            if (restoringPaths.remove(path)) journal.classRemoved(path);
 
             classPanel.remove(panel);
             refreshText();
             refreshPanels();
         });
 
+        pin.addActionListener(e -> {
+            boolean pinned = repo.snapshot().getPinnedClasses().contains(path);
+            repo.update(batch -> batch.setPinned(path, !pinned));
+            refreshText();
+            refreshPanels();
+        });
+
         panel.add(label);
         panel.add(toggle);
         panel.add(copy);
         panel.add(delete);
+        members.addActionListener(e -> {
+            ClassRepository.Snapshot current = repo.snapshot();
+            String code = current.getClassCodeMap().get(path);
+            if (code == null) return;
+            MemberPicker.pick(this, name, MemberIndex.of(code), current.getMemberSelections().get(path))
+                    .ifPresent(chosen -> {
+                        repo.update(batch -> batch.setMembers(path,
+                                chosen == MemberPicker.WHOLE_CLASS ? null : chosen));
+                        refreshText();
+                        refreshPanels();
+                    });
+        });
+
+        panel.add(pin);
+        panel.add(members);
 
         classPanel.add(panel);
         classPanel.revalidate();
@@ -302,48 +1055,119 @@ public class CodeClipFrame extends JFrame implements FocusListener {
     }
 
     private void refreshText() {
-        StringBuilder sb = new StringBuilder();
-        repo.getClassCodeMap().forEach((path, code) -> {
-            if (!repo.getDisabledClasses().contains(path)) {
-                sb
-//                        .append("// ===== ")
-//                  .append(new File(path).getName())
-//                  .append(" =====\n")
-                  .append(code)
-                  .append("\n\n");
+        ClassRepository.Snapshot snapshot = repo.snapshot();
+        Map<String, String> segments = new LinkedHashMap<>();
+        if (budgetCheck.isSelected()) {
+            // Diffs are sent whole or not at all; classes may shrink to signatures
+            List<BundlePacker.Item> items = new ArrayList<>();
+            snapshot.getClassCodeMap().forEach((path, code) -> {
+                if (!snapshot.getDisabledClasses().contains(path)) {
+                    String diff = gitDiffs.get(path);
+                    items.add(new BundlePacker.Item(path,
+                            diff != null ? diff : snapshot.getBundleCode(path), diff == null));
+                }
+            });
+            packPlan = packer.solve(items, settings.loadBudgetChars(),
+                    snapshot.getPinnedClasses(), snapshot.getPasteTimes());
+            for (BundlePacker.Item item : items) {
+                switch (packPlan.modeOf(item.path())) {
+                    case FULL -> segments.put(item.path(), item.text());
+                    case SIGNATURES -> segments.put(item.path(), packPlan.outlines().get(item.path()));
+                    case OMITTED -> { }
+                }
             }
-        });
-        classTextArea.setText(sb.toString());
+        } else {
+            packPlan = null;
+            for (String path : snapshot.getClassCodeMap().keySet()) {
+                if (!snapshot.getDisabledClasses().contains(path)) {
+                    String diff = gitDiffs.get(path);
+                    segments.put(path, diff != null ? diff : snapshot.getBundleCode(path));
+                }
+            }
+        }
+        showBundle(segments);
         refreshStats();
+        if (packPlan != null) refreshPanels();
+    }
+
+    private void showBundle(Map<String, String> segments) {
+        bundleSegments = segments;
+        bundleDocument.setSegments(new ArrayList<>(segments.values()));
     }
 
     private void refreshStats() {
-        long enabled =
-                repo.getClassCodeMap().size() - repo.getDisabledClasses().size();
+        ClassRepository.Snapshot snapshot = repo.snapshot();
+        long enabled = snapshot.getClassCodeMap().keySet().stream()
+                .filter(snapshot::isEnabled)
+                .count();
         enabledCountLabel.setText("Enabled Classes: " + enabled);
         charCountLabel.setText(
-                "Code Characters: " + classTextArea.getText().length()
+                "Code Characters: " + bundleDocument.getLength()
+                        + (packPlan == null ? "" : " / " + settings.loadBudgetChars()
+                        + " (full " + packPlan.count(BundlePacker.Mode.FULL)
+                        + ", signatures " + packPlan.count(BundlePacker.Mode.SIGNATURES)
+                        + ", omitted " + packPlan.count(BundlePacker.Mode.OMITTED) + ")")
         );
     }
 
     private void refreshPanels() {
+        ClassRepository.Snapshot snapshot = repo.snapshot();
         for (Component c : classPanel.getComponents()) {
-            if (c instanceof JPanel panel) {
-                JLabel label = (JLabel) panel.getComponent(0);
-                String name = label.getText();
-
-                for (Map.Entry<String, File> e : repo.getClassFileMap().entrySet()) {
-                    if (e.getValue().getName().equals(name)) {
-                        boolean disabled =
-                                repo.getDisabledClasses().contains(e.getKey());
-                        panel.setBackground(
-                                disabled ? DISABLED_COLOR : ENABLED_COLOR
-                        );
-                    }
-                }
+            if (c instanceof JPanel panel
+                    && panel.getClientProperty("path") instanceof String path) {
+                boolean disabled = snapshot.getDisabledClasses().contains(path);
+                panel.setBackground(disabled ? DISABLED_COLOR : ENABLED_COLOR);
+                ((JButton) panel.getComponent(1)).setText(disabled ? "Enable" : "Disable");
+                ((JButton) panel.getComponent(4)).setText(
+                        snapshot.getPinnedClasses().contains(path) ? "Unpin" : "Pin");
+                ((JLabel) panel.getComponent(0)).setText(
+                        new File(path).getName() + labelSuffix(path, disabled));
             }
         }
         classPanel.revalidate();
         classPanel.repaint();
     }
+
+    private void removeClassPanel(String path) {
+        for (Component c : classPanel.getComponents()) {
+            if (c instanceof JPanel panel && path.equals(panel.getClientProperty("path"))) {
+                classPanel.remove(panel);
+            }
+        }
+        classPanel.revalidate();
+        classPanel.repaint();
+    }
+
+    // Rows of late loads were appended; put them where the bundle has them
+    private void refreshPanelOrder() {
+        Map<Object, Component> rows = new LinkedHashMap<>();
+        for (Component c : classPanel.getComponents()) {
+            if (c instanceof JPanel panel) rows.put(panel.getClientProperty("path"), panel);
+        }
+        classPanel.removeAll();
+        for (String path : repo.snapshot().getClassCodeMap().keySet()) {
+            Component row = rows.remove(path);
+            if (row != null) classPanel.add(row);
+        }
+        rows.values().forEach(classPanel::add);
+    }
+
+    private String labelSuffix(String path, boolean disabled) {
+        if (restoringPaths.contains(path)) return " (loading)";
+        String members = "";
+        ClassRepository.Snapshot snapshot = repo.snapshot();
+        Set<String> selection = snapshot.getMemberSelections().get(path);
+        String code = snapshot.getClassCodeMap().get(path);
+        if (selection != null && code != null) {
+            members = " [" + selection.size() + "/" + MemberIndex.of(code).getMembers().size() + " members]";
+        }
+        int cluster = duplicates.clusterOf(path);
+        if (cluster > 0) members += " [dup #" + cluster + "]";
+        if (packPlan == null || disabled) return members;
+        return members + switch (packPlan.modeOf(path)) {
+            case FULL -> "";
+            case SIGNATURES -> " [sig]";
+            case OMITTED -> " [omitted]";
+        };
+    }
 }
@@ -0,0 +1,341 @@
+package wv.codeclip;
+
+import com.sun.source.util.JavacTask;
+
+import javax.tools.*;
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles a pasted class in memory against the loaded classes before it
+ * is written.
+ *
+ * The loaded classes are compiled once per repository state into
+ * in-memory class files, so a check only attributes the pasted unit
+ * itself; other project sources it needs are found through a source path
+ * made of the loaded classes' source roots, plus the configured classpath.
+ * The compiler and its file manager (with its platform and jar indexes)
+ * stay open between checks, and the dependency build is redone on a
+ * background thread whenever the repository changes, so a paste normally
+ * finds everything warm. The owner forwards repository changes to
+ * {@link #repositoryChanged}.
+ */
+public class CompileChecker {
+
+    private static final int MAX_REPORTED = 20;
+
+    private static final List<String> BUILD_OPTIONS =
+            List.of("-proc:none", "-implicit:class", "-g:none", "-nowarn", "-Xlint:none");
+    private static final List<String> CHECK_OPTIONS =
+            List.of("-proc:none", "-implicit:none", "-nowarn", "-Xlint:none");
+
+    private static final Pattern PACKAGE_PATTERN =
+            Pattern.compile("package\\s+([a-zA-Z0-9_.]+)\\s*;");
+
+    private final ClassRepository repo;
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+    // Everything below is guarded by lock
+    private final Object lock = new Object();
+    private StandardJavaFileManager standardManager;
+    private List<File> classpath = List.of();
+    private List<File> sourceRoots = List.of();
+    private Map<String, String> builtFrom = Map.of();
+    private Map<String, List<JavaFileObject>> dependencyClasses = Map.of();
+
+    private volatile boolean enabled;
+    private final AtomicBoolean warmQueued = new AtomicBoolean();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "codeclip-compile");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    public record Report(List<String> errors, long millis) {
+        public boolean passed() {
+            return errors.isEmpty();
+        }
+    }
+
+    public CompileChecker(ClassRepository repo) {
+        this.repo = repo;
+    }
+
+    /** Rebuilds the dependency classes in the background, if checking is on. */
+    public void repositoryChanged() {
+        if (enabled) prewarm();
+    }
+
+    /** False on a JRE without javac. */
+    public boolean isAvailable() {
+        return compiler != null;
+    }
+
+    /**
+     * Turns checking on or off.
+     *
+     * @param classpath extra classpath entries, separated by the platform
+     *                  path separator
+     */
+    public void setEnabled(boolean enabled, String classpath) {
+        List<File> entries = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.isBlank()) entries.add(new File(entry.trim()));
+        }
+        synchronized (lock) {
+            if (!entries.equals(this.classpath)) {
+                this.classpath = entries;
+                builtFrom = Map.of();
+                if (standardManager != null) setLocations();
+            }
+        }
+        this.enabled = enabled && isAvailable();
+        if (this.enabled) prewarm();
+    }
+
+    /**
+     * Compiles {@code code} as the contents of {@code fileName} against the
+     * current repository. Blocks while a dependency build is running, so
+     * call it off the EDT.
+     */
+    public Report check(String fileName, String code) {
+        long start = System.nanoTime();
+        List<String> errors = new ArrayList<>();
+
+        synchronized (lock) {
+            ensureDependencies(repo.snapshot());
+
+            String packageName = parsePackage(code);
+            MemorySource unit = new MemorySource(sourcePath(packageName, fileName), code);
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            JavaFileManager fm = new MemoryFileManager(standardManager, dependencyClasses, null);
+
+            try {
+                JavacTask task = (JavacTask) compiler.getTask(
+                        null, fm, diagnostics, CHECK_OPTIONS, null, List.of(unit));
+                task.analyze();
+            } catch (IOException | RuntimeException e) {
+                errors.add("Compiler failure: " + e);
+            }
+
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                // Problems in other sources on the source path are not ours to report
+                if (d.getKind() != Diagnostic.Kind.ERROR || d.getSource() != unit) continue;
+                if (errors.size() == MAX_REPORTED) {
+                    errors.add("...");
+                    break;
+                }
+                errors.add("Line " + d.getLineNumber() + ": " + d.getMessage(null));
+            }
+        }
+
+        return new Report(errors, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // --- Warm-up ---
+
+    private void prewarm() {
+        if (!warmQueued.compareAndSet(false, true)) return;
+        worker.execute(() -> {
+            warmQueued.set(false);
+            boolean first;
+            synchronized (lock) {
+                first = standardManager == null;
+                ensureDependencies(repo.snapshot());
+            }
+            // Loads and JIT-compiles the attribution path the first time
+            if (first) check("Warmup.java", "class Warmup { java.util.List<String> l = java.util.List.of(); }");
+        });
+    }
+
+    // --- Dependency classes ---
+
+    private void ensureDependencies(ClassRepository.Snapshot snapshot) {
+        if (standardManager == null) {
+            standardManager = compiler.getStandardFileManager(null, null, null);
+            setLocations();
+        }
+
+        Map<String, String> sources = new LinkedHashMap<>();
+        snapshot.getClassCodeMap().forEach((path, code) -> {
+            if (path.endsWith(".java")) sources.put(path, code);
+        });
+        if (sameCode(sources, builtFrom)) return;
+
+        List<File> roots = new ArrayList<>();
+        List<JavaFileObject> units = new ArrayList<>();
+        for (Map.Entry<String, String> e : sources.entrySet()) {
+            File file = new File(e.getKey());
+            String packageName = parsePackage(e.getValue());
+            File root = sourceRootOf(file, packageName);
+            if (root != null && !roots.contains(root)) roots.add(root);
+            units.add(new MemorySource(sourcePath(packageName, file.getName()), e.getValue()));
+        }
+        if (!roots.equals(sourceRoots)) {
+            sourceRoots = roots;
+            setLocations();
+        }
+
+        Map<String, byte[]> output = new HashMap<>();
+        boolean ok = units.isEmpty();
+        if (!ok) {
+            try {
+                ok = compiler.getTask(null,
+                        new MemoryFileManager(standardManager, Map.of(), output),
+                        new DiagnosticCollector<>(), BUILD_OPTIONS, null, units).call();
+            } catch (RuntimeException e) {
+                ok = false;
+            }
+        }
+
+        // After a failed build, checks fall back to parsing sources from the source path
+        Map<String, List<JavaFileObject>> byPackage = new HashMap<>();
+        if (ok) {
+            long built = System.currentTimeMillis();
+            output.forEach((name, bytes) -> {
+                int dot = name.lastIndexOf('.');
+                String pkg = dot < 0 ? "" : name.substring(0, dot);
+                byPackage.computeIfAbsent(pkg, k -> new ArrayList<>()).add(new MemoryClass(name, bytes, built));
+            });
+        }
+        dependencyClasses = byPackage;
+        builtFrom = sources;
+    }
+
+    private void setLocations() {
+        try {
+            standardManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+            standardManager.setLocation(StandardLocation.SOURCE_PATH, sourceRoots);
+        } catch (IOException e) {
+            // A missing classpath entry only costs resolution, keep going
+        }
+    }
+
+    private static boolean sameCode(Map<String, String> a, Map<String, String> b) {
+        if (a.size() != b.size()) return false;
+        for (Map.Entry<String, String> e : a.entrySet()) {
+            if (b.get(e.getKey()) != e.getValue()) return false;
+        }
+        return true;
+    }
+
+    private static String parsePackage(String code) {
+        Matcher m = PACKAGE_PATTERN.matcher(code);
+        return m.find() ? m.group(1) : null;
+    }
+
+    private static File sourceRootOf(File file, String packageName) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (packageName != null) {
+            String[] parts = packageName.split("\\.");
+            for (int i = parts.length - 1; i >= 0 && dir != null; i--) {
+                if (!dir.getName().equals(parts[i])) return null;
+                dir = dir.getParentFile();
+            }
+        }
+        return dir;
+    }
+
+    private static String sourcePath(String packageName, String fileName) {
+        return packageName == null ? fileName : packageName.replace('.', '/') + "/" + fileName;
+    }
+
+    // --- In-memory file objects ---
+
+    private static final class MemorySource extends SimpleJavaFileObject {
+        private final String code;
+
+        MemorySource(String path, String code) {
+            super(URI.create("mem:///" + path), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    private static final class MemoryClass extends SimpleJavaFileObject {
+        private final String binaryName;
+        private final byte[] bytes;
+        private final long lastModified;
+
+        MemoryClass(String binaryName, byte[] bytes, long lastModified) {
+            super(URI.create("mem:///" + binaryName.replace('.', '/') + ".class"), Kind.CLASS);
+            this.binaryName = binaryName;
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        // Newer than the sources, so javac prefers the class over re-parsing
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, List<JavaFileObject>> classes;
+        private final Map<String, byte[]> output;
+
+        MemoryFileManager(StandardJavaFileManager standard,
+                          Map<String, List<JavaFileObject>> classes,
+                          Map<String, byte[]> output) {
+            super(standard);
+            this.classes = classes;
+            this.output = output;
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName,
+                                             Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+            Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+            List<JavaFileObject> own = classes.get(packageName);
+            if (location != StandardLocation.CLASS_PATH || own == null || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+                return listed;
+            }
+            List<JavaFileObject> merged = new ArrayList<>(own);
+            listed.forEach(merged::add);
+            return merged;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            return file instanceof MemoryClass mc ? mc.binaryName : super.inferBinaryName(location, file);
+        }
+
+        @Override
+        public boolean hasLocation(Location location) {
+            return location == StandardLocation.CLASS_PATH || super.hasLocation(location);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            if (output != null) output.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package wv.codeclip;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Remembers what the last copy contained and builds "what changed since
+ * then" payloads: classes added or changed since that copy, optionally as
+ * unified line diffs, plus a manifest of classes no longer included.
+ *
+ * Both sides are bundle segments by path, exactly as the bundle showed
+ * them: the class, its member selection, its git diff or its budget
+ * outline. A class the budget left out was not sent, so it is not part of
+ * the baseline. The baseline keeps the segment strings themselves;
+ * unchanged classes are the same String instances as in the bundle, so
+ * they cost nothing extra and compare by identity (or by cached hash)
+ * without a scan. Used on the EDT.
+ */
+public class DeltaExporter {
+
+    private static final int CONTEXT_LINES = 3;
+
+    // A diff with more edited lines than this is sent as the full class
+    private static final int MAX_DIFF_EDITS = 2000;
+
+    private Map<String, String> baseline;
+
+    public record Delta(String text, int added, int changed, int removed, int unchanged) {
+        public boolean isEmpty() {
+            return added == 0 && changed == 0 && removed == 0;
+        }
+    }
+
+    public boolean hasBaseline() {
+        return baseline != null;
+    }
+
+    /** Records {@code segments}, by path, as what was last copied. */
+    public void remember(Map<String, String> segments) {
+        baseline = new HashMap<>(segments);
+    }
+
+    public void clear() {
+        baseline = null;
+    }
+
+    /**
+     * Builds the payload for the bundle {@code current}, segments by path,
+     * relative to the baseline. Must only be called with a baseline.
+     */
+    public Delta export(Map<String, String> current, boolean asDiffs) {
+        StringBuilder body = new StringBuilder();
+        int added = 0, changed = 0, unchanged = 0;
+
+        for (Map.Entry<String, String> e : current.entrySet()) {
+            String path = e.getKey();
+            String code = e.getValue();
+            String old = baseline.get(path);
+            String name = new File(path).getName();
+
+            if (old == null) {
+                added++;
+                body.append("// ===== ").append(name).append(" (added) =====\n")
+                    .append(code).append("\n\n");
+            } else if (!same(old, code)) {
+                changed++;
+                String diff = asDiffs
+                        ? LineDiff.unified(name, old, code, CONTEXT_LINES, MAX_DIFF_EDITS)
+                        : null;
+                if (diff != null && diff.length() < code.length()) {
+                    body.append("// ===== ").append(name).append(" (changed, diff) =====\n")
+                        .append(diff).append('\n');
+                } else {
+                    body.append("// ===== ").append(name).append(" (changed) =====\n")
+                        .append(code).append("\n\n");
+                }
+            } else {
+                unchanged++;
+            }
+        }
+
+        List<String> removed = new ArrayList<>();
+        for (String path : baseline.keySet()) {
+            if (!current.containsKey(path)) removed.add(new File(path).getName());
+        }
+
+        StringBuilder out = new StringBuilder(body.length() + 256);
+        out.append("// === Changes since last copy: ")
+           .append(added).append(" added, ")
+           .append(changed).append(" changed, ")
+           .append(removed.size()).append(" removed; ")
+           .append(unchanged).append(" unchanged classes not repeated ===\n");
+        if (!removed.isEmpty()) {
+            out.append("// No longer included: ").append(String.join(", ", removed)).append('\n');
+        }
+        out.append('\n').append(body);
+
+        return new Delta(out.toString(), added, changed, removed.size(), unchanged);
+    }
+
+    private static boolean same(String a, String b) {
+        return a == b || (a.length() == b.length() && a.hashCode() == b.hashCode() && a.equals(b));
+    }
+}
@@ -0,0 +1,367 @@
+package wv.codeclip;
+
+import javax.swing.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Finds loaded classes that are copies of each other: the same
+ * fully-qualified name, identical content, or near-identical content
+ * (vendored copies, generated variants, fixtures).
+ *
+ * Near-duplicates are found with MinHash over 5-token shingles (comments
+ * and whitespace ignored) and locality-sensitive hashing: the signature is
+ * cut into bands, classes sharing a band become candidates, and candidates
+ * count as similar when their signatures agree on at least
+ * {@link #SIMILARITY} of the values. Fingerprints are kept per path and
+ * recomputed only for code that changed, on a background thread; the
+ * clusters are handed to the listener on the EDT.
+ */
+public class DuplicateDetector {
+
+    public static final double SIMILARITY = 0.8;
+
+    private static final int HASHES = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS = HASHES / BANDS;
+    private static final int SHINGLE = 5;
+    private static final int MIN_SHINGLES = 20;
+
+    private static final long[] SEEDS = new long[HASHES];
+    static {
+        long s = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < HASHES; i++) SEEDS[i] = mix(s += 0x9E3779B97F4A7C15L);
+    }
+
+    /** Paths in bundle order; {@code reason} lists how they are linked, strongest first. */
+    public record Cluster(List<String> paths, String reason) {}
+
+    private record Fingerprint(String code, String fqcn, long contentHash, int length, long[] minHash) {}
+
+    // Worker thread only
+    private final Map<String, Fingerprint> fingerprints = new HashMap<>();
+    private final Map<Long, Set<String>> buckets = new HashMap<>();
+
+    private final AtomicReference<ClassRepository.Snapshot> pending = new AtomicReference<>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "codeclip-duplicates");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private volatile List<Cluster> clusters = List.of();
+    private volatile Map<String, Integer> clusterOf = Map.of();
+
+    public DuplicateDetector(ClassRepository repo, Consumer<List<Cluster>> listener) {
+        repo.addListener((snapshot, change) -> {
+            if (!change.added().isEmpty() || !change.removed().isEmpty()
+                    || !change.modified().isEmpty() || change.reordered()) {
+                submit(snapshot, listener);
+            }
+        });
+    }
+
+    public List<Cluster> getClusters() {
+        return clusters;
+    }
+
+    /** @return the 1-based cluster number of {@code path}, or 0 if it has no duplicates */
+    public int clusterOf(String path) {
+        return clusterOf.getOrDefault(path, 0);
+    }
+
+    // Only the newest snapshot is processed when several arrive during a run
+    private void submit(ClassRepository.Snapshot snapshot, Consumer<List<Cluster>> listener) {
+        if (pending.getAndSet(snapshot) != null) return;
+        worker.execute(() -> {
+            ClassRepository.Snapshot latest = pending.getAndSet(null);
+            List<Cluster> found = detect(latest);
+            Map<String, Integer> index = new HashMap<>();
+            for (int i = 0; i < found.size(); i++) {
+                for (String path : found.get(i).paths()) index.put(path, i + 1);
+            }
+            boolean changed = !found.equals(clusters);
+            clusters = found;
+            clusterOf = index;
+            if (changed) SwingUtilities.invokeLater(() -> listener.accept(found));
+        });
+    }
+
+    // ------------------------------------------------------------------
+    // Detection
+    // ------------------------------------------------------------------
+
+    private List<Cluster> detect(ClassRepository.Snapshot snapshot) {
+        Map<String, String> code = snapshot.getClassCodeMap();
+
+        for (Iterator<Map.Entry<String, Fingerprint>> it = fingerprints.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Fingerprint> e = it.next();
+            if (code.get(e.getKey()) != e.getValue().code()) {
+                unbucket(e.getKey(), e.getValue());
+                it.remove();
+            }
+        }
+        code.forEach((path, c) -> {
+            if (!fingerprints.containsKey(path)) {
+                Fingerprint f = fingerprint(c);
+                fingerprints.put(path, f);
+                bucket(path, f);
+            }
+        });
+
+        // Union-find over the links, collecting the kinds of link per root
+        Map<String, String> parent = new HashMap<>();
+        Map<String, TreeMap<Integer, String>> reason = new HashMap<>();
+
+        Map<String, List<String>> byName = new HashMap<>();
+        Map<Long, List<String>> byContent = new HashMap<>();
+        fingerprints.forEach((path, f) -> {
+            if (f.fqcn() != null) byName.computeIfAbsent(f.fqcn(), k -> new ArrayList<>()).add(path);
+            byContent.computeIfAbsent(f.contentHash() * 31 + f.length(), k -> new ArrayList<>()).add(path);
+        });
+        for (List<String> same : byContent.values()) {
+            for (int i = 1; i < same.size(); i++) {
+                if (fingerprints.get(same.get(0)).code().equals(fingerprints.get(same.get(i)).code())) {
+                    link(parent, reason, same.get(0), same.get(i), 3, "identical");
+                }
+            }
+        }
+        byName.forEach((fqcn, same) -> {
+            for (int i = 1; i < same.size(); i++) {
+                link(parent, reason, same.get(0), same.get(i), 2, "same class " + fqcn);
+            }
+        });
+
+        for (Set<String> bucket : buckets.values()) {
+            if (bucket.size() < 2) continue;
+            List<String> members = new ArrayList<>(bucket);
+            for (int i = 0; i < members.size(); i++) {
+                for (int j = i + 1; j < members.size(); j++) {
+                    // A pair sharing several bands is compared again; 64 longs are cheap
+                    String a = members.get(i);
+                    String b = members.get(j);
+                    double sim = similarity(fingerprints.get(a).minHash(), fingerprints.get(b).minHash());
+                    if (sim >= SIMILARITY) {
+                        // Near-copies can estimate as 100%; only identical files should read that way
+                        long percent = Math.min(99, Math.round(sim * 100));
+                        link(parent, reason, a, b, 1, "similar (" + percent + "%)");
+                    }
+                }
+            }
+        }
+
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (String path : code.keySet()) {
+            if (parent.containsKey(path)) {
+                groups.computeIfAbsent(find(parent, path), k -> new ArrayList<>()).add(path);
+            }
+        }
+        List<Cluster> result = new ArrayList<>();
+        groups.forEach((root, paths) -> result.add(new Cluster(List.copyOf(paths),
+                String.join(", ", reason.get(root).descendingMap().values()))));
+        return List.copyOf(result);
+    }
+
+    // One reason per kind of link; for similarity the first found is kept
+    private static void link(Map<String, String> parent, Map<String, TreeMap<Integer, String>> reason,
+                             String a, String b, int level, String why) {
+        parent.putIfAbsent(a, a);
+        parent.putIfAbsent(b, b);
+        String ra = find(parent, a);
+        String rb = find(parent, b);
+        TreeMap<Integer, String> reasons = reason.computeIfAbsent(ra, k -> new TreeMap<>());
+        if (!ra.equals(rb)) {
+            parent.put(rb, ra);
+            TreeMap<Integer, String> merged = reason.remove(rb);
+            if (merged != null) merged.forEach(reasons::putIfAbsent);
+        }
+        reasons.putIfAbsent(level, why);
+    }
+
+    private static String find(Map<String, String> parent, String path) {
+        String root = path;
+        while (!parent.get(root).equals(root)) root = parent.get(root);
+        while (!path.equals(root)) {
+            String next = parent.get(path);
+            parent.put(path, root);
+            path = next;
+        }
+        return root;
+    }
+
+    private static double similarity(long[] a, long[] b) {
+        if (a == null || b == null) return 0;
+        int same = 0;
+        for (int i = 0; i < HASHES; i++) if (a[i] == b[i]) same++;
+        return same / (double) HASHES;
+    }
+
+    private void bucket(String path, Fingerprint f) {
+        if (f.minHash() == null) return;
+        for (int band = 0; band < BANDS; band++) {
+            buckets.computeIfAbsent(bandKey(f.minHash(), band), k -> new HashSet<>()).add(path);
+        }
+    }
+
+    private void unbucket(String path, Fingerprint f) {
+        if (f.minHash() == null) return;
+        for (int band = 0; band < BANDS; band++) {
+            long key = bandKey(f.minHash(), band);
+            Set<String> bucket = buckets.get(key);
+            if (bucket != null && bucket.remove(path) && bucket.isEmpty()) buckets.remove(key);
+        }
+    }
+
+    private static long bandKey(long[] minHash, int band) {
+        long h = band;
+        for (int r = 0; r < ROWS; r++) h = mix(h ^ minHash[band * ROWS + r]);
+        return h;
+    }
+
+    // ------------------------------------------------------------------
+    // Fingerprints
+    // ------------------------------------------------------------------
+
+    /**
+     * One pass over the tokens (comments and whitespace skipped, each
+     * literal one token) builds the MinHash signature and picks up the
+     * package and the first top-level type name on the way. Annotation
+     * arguments in the header and class literals such as {@code Foo.class}
+     * are not mistaken for the type declaration.
+     */
+    private static Fingerprint fingerprint(String code) {
+        long contentHash = 1125899906842597L;
+        for (int i = 0; i < code.length(); i++) contentHash = 31 * contentHash + code.charAt(i);
+
+        long[] min = new long[HASHES];
+        Arrays.fill(min, Long.MAX_VALUE);
+        long[] window = new long[SHINGLE];
+        int tokens = 0;
+        int n = code.length();
+        int i = 0;
+
+        StringBuilder packageName = null;
+        String typeName = null;
+        boolean inPackage = false;
+        boolean typeNext = false;
+        boolean afterDot = false;
+        int depth = 0;
+        int parens = 0;
+
+        while (i < n) {
+            char c = code.charAt(i);
+            char next = i + 1 < n ? code.charAt(i + 1) : '\0';
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (c == '/' && next == '/') {
+                while (i < n && code.charAt(i) != '\n') i++;
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                int end = code.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+                continue;
+            }
+
+            long token;
+            if (Character.isJavaIdentifierPart(c)) {
+                int start = i;
+                token = 7;
+                while (i < n && Character.isJavaIdentifierPart(code.charAt(i))) {
+                    token = 31 * token + code.charAt(i++);
+                }
+                if (typeName == null && depth == 0 && parens == 0) {
+                    if (inPackage) {
+                        packageName.append(code, start, i);
+                    } else if (typeNext) {
+                        typeName = code.substring(start, i);
+                    } else if (isWord(code, start, i, "package")) {
+                        inPackage = true;
+                        packageName = new StringBuilder();
+                    } else {
+                        typeNext = !afterDot && (isWord(code, start, i, "class")
+                                || isWord(code, start, i, "interface")
+                                || isWord(code, start, i, "enum") || isWord(code, start, i, "record"));
+                    }
+                }
+                afterDot = false;
+            } else if (c == '"' || c == '\'') {
+                int end = skipLiteral(code, i);
+                token = 11;
+                for (int k = i; k < end; k++) token = 31 * token + code.charAt(k);
+                i = end;
+                afterDot = false;
+            } else {
+                token = c;
+                i++;
+                afterDot = c == '.';
+                if (c == '{') depth++;
+                if (c == '}') depth--;
+                // Annotation arguments, e.g. @RunWith(Foo.class)
+                if (c == '(') parens++;
+                if (c == ')') parens--;
+                if (inPackage) {
+                    if (c == '.') packageName.append('.');
+                    if (c == ';') inPackage = false;
+                }
+            }
+
+            window[tokens++ % SHINGLE] = token;
+            if (tokens < SHINGLE) continue;
+
+            long shingle = 0;
+            for (int k = 0; k < SHINGLE; k++) shingle = 31 * shingle + window[(tokens + k) % SHINGLE];
+            shingle = mix(shingle);
+            for (int k = 0; k < HASHES; k++) {
+                long h = mix(shingle ^ SEEDS[k]);
+                if (h < min[k]) min[k] = h;
+            }
+        }
+
+        String fqcn = typeName == null ? null
+                : packageName == null || packageName.length() == 0 ? typeName : packageName + "." + typeName;
+        // Sources too short to compare get no signature
+        long[] minHash = tokens - SHINGLE + 1 >= MIN_SHINGLES ? min : null;
+        return new Fingerprint(code, fqcn, contentHash, code.length(), minHash);
+    }
+
+    private static boolean isWord(String code, int start, int end, String word) {
+        return end - start == word.length() && code.startsWith(word, start);
+    }
+
+    /** @return index just past the string, text block or char literal at {@code start} */
+    private static int skipLiteral(String code, int start) {
+        int n = code.length();
+        char quote = code.charAt(start);
+        if (quote == '"' && code.startsWith("\"\"\"", start)) {
+            int end = code.indexOf("\"\"\"", start + 3);
+            while (end > 0 && code.charAt(end - 1) == '\\') end = code.indexOf("\"\"\"", end + 1);
+            return end < 0 ? n : end + 3;
+        }
+        int i = start + 1;
+        while (i < n) {
+            char c = code.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote || c == '\n') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    // splitmix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,175 @@
+package wv.codeclip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of file contents keyed by absolute path.
+ * An entry is only served while the file's mtime and size still match
+ * what was seen when it was read, so a hit costs one stat instead of a read.
+ * Files are decoded by {@link SourceFileReader}; the charset and BOM found
+ * are remembered so {@link #write} can keep them.
+ * Safe to use from the EDT and from background workers.
+ */
+public class FileContentCache {
+
+    private final long maxChars;
+    private volatile SourceFileReader reader =
+            new SourceFileReader(SourceFileReader.DEFAULT_MAX_BYTES);
+
+    // access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(64, 0.75f, true);
+
+    private long totalChars;
+    private long hits;
+    private long misses;
+
+    public FileContentCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /** Files larger than this are loaded as a truncated preview. */
+    public void setMaxFileBytes(long maxBytes) {
+        reader = new SourceFileReader(maxBytes);
+        clear();
+    }
+
+    public String read(File file) throws IOException {
+        return load(file).content;
+    }
+
+    /**
+     * Like {@link #read}, but a file over the size cap is decoded in full
+     * instead of returned as a preview. The full text is not cached. For
+     * callers that edit the file or compare against all of it.
+     */
+    public String readFull(File file) throws IOException {
+        Entry e = load(file);
+        if (!e.truncated) return e.content;
+        return new SourceFileReader(Long.MAX_VALUE).read(file.toPath()).text();
+    }
+
+    private Entry load(File file) throws IOException {
+        Path path = file.toPath();
+        String key = file.getAbsolutePath();
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && e.matches(attrs)) {
+                hits++;
+                return e;
+            }
+            misses++;
+        }
+
+        SourceFileReader.Decoded decoded = reader.read(path);
+        Entry entry = new Entry(decoded.text(), attrs.lastModifiedTime(), attrs.size(),
+                decoded.charset(), decoded.bom(), decoded.truncated());
+        store(key, entry);
+        return entry;
+    }
+
+    /**
+     * Writes {@code content} to {@code file} in the encoding it was read
+     * with and caches it. When the entry was evicted the encoding is
+     * detected from the file again; only new files are written as UTF-8.
+     */
+    public void write(File file, String content) throws IOException {
+        Charset charset = StandardCharsets.UTF_8;
+        boolean bom = false;
+        Entry cached;
+        synchronized (this) {
+            cached = entries.get(file.getAbsolutePath());
+        }
+        if (cached != null) {
+            charset = cached.charset;
+            bom = cached.bom;
+        } else if (Files.isRegularFile(file.toPath())) {
+            SourceFileReader.Decoded existing = reader.read(file.toPath());
+            charset = existing.charset();
+            bom = existing.bom();
+        }
+
+        SourceFileReader.write(file.toPath(), content, charset, bom);
+        try {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            store(file.getAbsolutePath(), new Entry(content, attrs.lastModifiedTime(),
+                    attrs.size(), charset, bom, false));
+        } catch (IOException e) {
+            invalidate(file);
+        }
+    }
+
+    /** @return true if the cached content of {@code file} is a truncated preview */
+    public synchronized boolean isTruncated(File file) {
+        Entry e = entries.get(file.getAbsolutePath());
+        return e != null && e.truncated;
+    }
+
+    public synchronized void invalidate(File file) {
+        Entry removed = entries.remove(file.getAbsolutePath());
+        if (removed != null) totalChars -= removed.content.length();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalChars = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized String describeStats() {
+        long total = hits + misses;
+        int rate = total == 0 ? 0 : (int) (hits * 100 / total);
+        return "file cache: " + hits + " hits, " + misses + " misses (" + rate + "%), "
+                + entries.size() + " files / " + totalChars + " chars cached";
+    }
+
+    private synchronized void store(String key, Entry entry) {
+        // A single file bigger than the whole budget is not worth caching.
+        if (entry.content.length() > maxChars) return;
+
+        Entry old = entries.put(key, entry);
+        if (old != null) totalChars -= old.content.length();
+        totalChars += entry.content.length();
+
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalChars > maxChars && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) continue;
+            totalChars -= eldest.getValue().content.length();
+            it.remove();
+        }
+    }
+
+    private record Entry(
+            String content,
+            FileTime modified,
+            long size,
+            Charset charset,
+            boolean bom,
+            boolean truncated
+    ) {
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified.equals(attrs.lastModifiedTime());
+        }
+    }
+}
@@ -49,6 +49,13 @@ public class FileDropHandler extends DropTargetAdapter {
         }
     }
 
+    /** Adds the Java files among {@code files}, scanning directories. */
+    public void handleFiles(List<File> files) {
+        for (File file : files) {
+            handleFileOrDirectory(file);
+        }
+    }
+
     private void handleFileOrDirectory(File file) {
         if (file.isDirectory()) {
             scanDirectory(file);
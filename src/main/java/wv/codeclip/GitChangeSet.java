@@ -0,0 +1,254 @@
+package wv.codeclip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks the local git for the .java files changed against a base ref
+ * (working tree and index, plus untracked files) under the roots of the
+ * loaded classes, optionally with their unified diffs.
+ *
+ * Results are cached per repository and only recomputed when the index,
+ * HEAD, the base ref, one of the loaded files or the working-tree status
+ * under the roots (which files are dirty or untracked, and their mtimes)
+ * changes, so refreshing on every window activation costs one
+ * {@code git status} instead of a diff. The base ref is resolved
+ * to a commit id first, so user input never reaches git as an option.
+ * Blocking: call off the EDT.
+ */
+public class GitChangeSet {
+
+    private static final long GIT_TIMEOUT_SECONDS = 20;
+
+    public record Result(Set<String> changedPaths, Map<String, String> diffs) {}
+
+    private final Map<File, Optional<File>> toplevelOfDir = new HashMap<>();
+    private final Map<File, File> gitDirOfToplevel = new HashMap<>();
+    private final Map<File, Cached> cache = new HashMap<>();
+
+    private record Cached(String signature, Result result) {}
+
+    public synchronized Result collect(
+            Collection<File> loadedFiles,
+            String baseRef,
+            boolean withDiffs,
+            boolean force
+    ) throws IOException {
+
+        // Group the loaded files by git repository
+        Map<File, List<File>> byToplevel = new LinkedHashMap<>();
+        for (File file : loadedFiles) {
+            File dir = file.getAbsoluteFile().getParentFile();
+            Optional<File> top = toplevelOfDir.computeIfAbsent(dir, this::findToplevel);
+            top.ifPresent(t -> byToplevel.computeIfAbsent(t, k -> new ArrayList<>()).add(file));
+        }
+
+        Set<String> changed = new LinkedHashSet<>();
+        Map<String, String> diffs = new HashMap<>();
+
+        for (Map.Entry<File, List<File>> e : byToplevel.entrySet()) {
+            File top = e.getKey();
+            String base = resolve(top, baseRef);
+            List<File> roots = rootsOf(e.getValue());
+            String signature = signature(top, e.getValue(), roots, base, withDiffs);
+
+            Cached cached = cache.get(top);
+            Result result;
+            if (!force && cached != null && cached.signature.equals(signature)) {
+                result = cached.result;
+            } else {
+                result = query(top, roots, base, withDiffs);
+                cache.put(top, new Cached(signature, result));
+            }
+            changed.addAll(result.changedPaths);
+            diffs.putAll(result.diffs);
+        }
+        return new Result(changed, diffs);
+    }
+
+    // --- Change detection ---
+    private String signature(File top, List<File> files, List<File> roots, String baseRef,
+                             boolean withDiffs) throws IOException {
+        File gitDir = gitDirOfToplevel.get(top);
+        StringBuilder sb = new StringBuilder(baseRef).append('|').append(withDiffs);
+        if (gitDir != null) {
+            File index = new File(gitDir, "index");
+            File head = new File(gitDir, "HEAD");
+            sb.append('|').append(index.lastModified()).append(':').append(index.length())
+              .append('|').append(head.lastModified());
+            try {
+                sb.append('|').append(Files.readString(head.toPath()).trim());
+            } catch (IOException ignored) {}
+        }
+        long newest = 0;
+        for (File f : files) newest = Math.max(newest, f.lastModified());
+        sb.append('|').append(files.size()).append('|').append(newest);
+
+        // Unloaded files: edits, new untracked files, deletions. A file that
+        // stays dirty keeps its status line, so its mtime and size go in too.
+        // No optional locks: status must not refresh (and so touch) the index.
+        List<String> statusCmd = new ArrayList<>(List.of(
+                "git", "--no-optional-locks", "status", "--porcelain", "-z", "--untracked-files=all", "--"));
+        for (File root : roots) statusCmd.add(root.getAbsolutePath());
+        String status = run(top, statusCmd.toArray(new String[0]));
+        sb.append('|').append(status.hashCode());
+        for (String entry : status.split("\0")) {
+            if (entry.length() < 4) continue;
+            File f = new File(top, entry.substring(3));
+            sb.append('|').append(f.lastModified()).append(':').append(f.length());
+        }
+        return sb.toString();
+    }
+
+    // Directory above "src" of each loaded file (or its own directory),
+    // with nested roots dropped.
+    private List<File> rootsOf(List<File> files) {
+        TreeSet<String> roots = new TreeSet<>();
+        for (File file : files) {
+            File root = file.getAbsoluteFile().getParentFile();
+            for (File d = root; d != null; d = d.getParentFile()) {
+                if (d.getName().equals("src")) {
+                    root = d.getParentFile();
+                    break;
+                }
+            }
+            roots.add(root.getPath() + File.separator);
+        }
+
+        List<File> result = new ArrayList<>();
+        String last = null;
+        for (String root : roots) {
+            if (last != null && root.startsWith(last)) continue;
+            result.add(new File(root));
+            last = root;
+        }
+        return result;
+    }
+
+    // --- git ---
+    private Optional<File> findToplevel(File dir) {
+        try {
+            String top = run(dir, "git", "rev-parse", "--show-toplevel").trim();
+            String gitDir = run(dir, "git", "rev-parse", "--absolute-git-dir").trim();
+            if (top.isEmpty()) return Optional.empty();
+            File topFile = new File(top);
+            gitDirOfToplevel.put(topFile, new File(gitDir));
+            return Optional.of(topFile);
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    // "--output=..." and the like would otherwise be parsed as options
+    private String resolve(File top, String baseRef) throws IOException {
+        String ref = baseRef.trim();
+        if (ref.isEmpty() || ref.startsWith("-")) {
+            throw new IOException("Invalid base ref: " + baseRef);
+        }
+        try {
+            return run(top, "git", "rev-parse", "--verify", "--quiet", ref + "^{commit}").trim();
+        } catch (IOException e) {
+            throw new IOException("Unknown base ref: " + baseRef, e);
+        }
+    }
+
+    /**
+     * @param baseCommit a commit id from {@link #resolve}
+     */
+    private Result query(File top, List<File> roots, String baseCommit, boolean withDiffs) throws IOException {
+        List<String> pathspecs = new ArrayList<>();
+        for (File root : roots) pathspecs.add(root.getAbsolutePath());
+
+        Set<String> changed = new LinkedHashSet<>();
+
+        List<String> diffCmd = new ArrayList<>(List.of(
+                "git", "diff", "--name-only", "-z", "--diff-filter=d", baseCommit, "--"));
+        diffCmd.addAll(pathspecs);
+        addJavaPaths(top, run(top, diffCmd.toArray(new String[0])), changed);
+
+        Set<String> untracked = new LinkedHashSet<>();
+        List<String> untrackedCmd = new ArrayList<>(List.of(
+                "git", "ls-files", "--others", "--exclude-standard", "-z", "--"));
+        untrackedCmd.addAll(pathspecs);
+        addJavaPaths(top, run(top, untrackedCmd.toArray(new String[0])), untracked);
+        changed.addAll(untracked);
+
+        Map<String, String> diffs = new HashMap<>();
+        if (withDiffs) {
+            List<String> tracked = new ArrayList<>(changed);
+            tracked.removeAll(untracked);
+            if (!tracked.isEmpty()) {
+                List<String> cmd = new ArrayList<>(List.of("git", "diff", "--no-color", baseCommit, "--"));
+                cmd.addAll(tracked);
+                splitDiff(top, run(top, cmd.toArray(new String[0])), diffs);
+            }
+        }
+        return new Result(changed, diffs);
+    }
+
+    private void addJavaPaths(File top, String nulSeparated, Set<String> out) {
+        for (String rel : nulSeparated.split("\0")) {
+            if (rel.endsWith(".java")) {
+                out.add(new File(top, rel).getAbsolutePath());
+            }
+        }
+    }
+
+    // Splits "git diff" output into one entry per file
+    private void splitDiff(File top, String output, Map<String, String> diffs) {
+        int start = output.indexOf("diff --git ");
+        while (start >= 0) {
+            int next = output.indexOf("\ndiff --git ", start + 1);
+            String section = next < 0 ? output.substring(start) : output.substring(start, next + 1);
+
+            int plus = section.indexOf("\n+++ b/");
+            if (plus >= 0) {
+                int eol = section.indexOf('\n', plus + 1);
+                String rel = section.substring(plus + 7, eol < 0 ? section.length() : eol);
+                diffs.put(new File(top, rel).getAbsolutePath(), section);
+            }
+            start = next < 0 ? -1 : next + 1;
+        }
+    }
+
+    private String run(File dir, String... command) throws IOException {
+        Process process = new ProcessBuilder(command)
+                .directory(dir)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        // Drained on its own thread so the timeout also covers a git that
+        // hangs before closing its output
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread drain = new Thread(() -> {
+            try (InputStream in = process.getInputStream()) {
+                in.transferTo(out);
+            } catch (IOException ignored) {
+                // the process was killed
+            }
+        }, "codeclip-git-output");
+        drain.setDaemon(true);
+        drain.start();
+
+        try {
+            if (!process.waitFor(GIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("git timed out: " + String.join(" ", command));
+            }
+            drain.join(TimeUnit.SECONDS.toMillis(GIT_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        if (process.exitValue() != 0) {
+            throw new IOException("git failed (" + process.exitValue() + "): " + String.join(" ", command));
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,225 @@
+package wv.codeclip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line-based unified diff using Myers' O(ND) algorithm.
+ *
+ * Lines are interned to ints and the common prefix and suffix are skipped
+ * before searching, so the usual "a few lines changed in a big class"
+ * case only runs the search over the changed region.
+ */
+public final class LineDiff {
+
+    private LineDiff() {}
+
+    private static final byte EQUAL = 0;
+    private static final byte DELETE = 1;
+    private static final byte INSERT = 2;
+
+    /**
+     * @param maxEdits give up above this many inserted + deleted lines
+     * @return the unified diff, "" if the texts are equal, or null if
+     *         they differ in more than {@code maxEdits} lines
+     */
+    public static String unified(String name, String before, String after, int context, int maxEdits) {
+        String[] a = lines(before);
+        String[] b = lines(after);
+        byte[] ops = diff(a, b, maxEdits);
+        if (ops == null) return null;
+
+        boolean changed = false;
+        for (byte op : ops) {
+            if (op != EQUAL) {
+                changed = true;
+                break;
+            }
+        }
+        if (!changed) return "";
+
+        StringBuilder out = new StringBuilder();
+        out.append("--- a/").append(name).append('\n')
+           .append("+++ b/").append(name).append('\n');
+        appendHunks(out, ops, a, b, context);
+        return out.toString();
+    }
+
+    // --- Myers ---
+    private static byte[] diff(String[] a, String[] b, int maxEdits) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[] x = intern(a, ids);
+        int[] y = intern(b, ids);
+
+        int prefix = 0;
+        while (prefix < x.length && prefix < y.length && x[prefix] == y[prefix]) prefix++;
+        int suffix = 0;
+        while (suffix < x.length - prefix && suffix < y.length - prefix
+                && x[x.length - 1 - suffix] == y[y.length - 1 - suffix]) suffix++;
+
+        int n = x.length - prefix - suffix;
+        int m = y.length - prefix - suffix;
+
+        byte[] middle = myers(x, prefix, n, y, prefix, m, maxEdits);
+        if (middle == null) return null;
+
+        byte[] ops = new byte[prefix + middle.length + suffix];
+        System.arraycopy(middle, 0, ops, prefix, middle.length);
+        return ops; // prefix and suffix stay EQUAL (0)
+    }
+
+    private static byte[] myers(int[] a, int aOff, int n, int[] b, int bOff, int m, int maxEdits) {
+        int max = n + m;
+        if (max == 0) return new byte[0];
+
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        int found = -1;
+
+        for (int d = 0; d <= Math.min(max, maxEdits); d++) {
+            // V as it was before round d, for k in [-d, d]
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+
+            for (int k = -d; k <= d; k += 2) {
+                int xPos;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    xPos = v[offset + k + 1];
+                } else {
+                    xPos = v[offset + k - 1] + 1;
+                }
+                int yPos = xPos - k;
+                while (xPos < n && yPos < m && a[aOff + xPos] == b[bOff + yPos]) {
+                    xPos++;
+                    yPos++;
+                }
+                v[offset + k] = xPos;
+                if (xPos >= n && yPos >= m) {
+                    found = d;
+                    break;
+                }
+            }
+            if (found >= 0) break;
+        }
+        if (found < 0) return null;
+
+        // Walk the trace back from (n, m), collecting ops in reverse
+        byte[] reversed = new byte[n + m];
+        int count = 0;
+        int xPos = n;
+        int yPos = m;
+        for (int d = found; d >= 0; d--) {
+            int[] prev = trace.get(d);
+            int k = xPos - yPos;
+
+            int prevK;
+            if (d == 0) {
+                prevK = k;
+            } else if (k == -d || (k != d && at(prev, d, k - 1) < at(prev, d, k + 1))) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = d == 0 ? 0 : at(prev, d, prevK);
+            int prevY = prevX - prevK;
+
+            while (xPos > prevX && yPos > prevY) {
+                reversed[count++] = EQUAL;
+                xPos--;
+                yPos--;
+            }
+            if (d > 0) {
+                if (xPos == prevX) {
+                    reversed[count++] = INSERT;
+                    yPos--;
+                } else {
+                    reversed[count++] = DELETE;
+                    xPos--;
+                }
+            }
+        }
+
+        byte[] ops = new byte[count];
+        for (int i = 0; i < count; i++) ops[i] = reversed[count - 1 - i];
+        return ops;
+    }
+
+    private static int at(int[] slice, int d, int k) {
+        return slice[k + d];
+    }
+
+    // --- Output ---
+    private static void appendHunks(StringBuilder out, byte[] ops, String[] a, String[] b, int context) {
+        // Line positions in a and b before each op
+        int[] aAt = new int[ops.length + 1];
+        int[] bAt = new int[ops.length + 1];
+        for (int i = 0; i < ops.length; i++) {
+            aAt[i + 1] = aAt[i] + (ops[i] != INSERT ? 1 : 0);
+            bAt[i + 1] = bAt[i] + (ops[i] != DELETE ? 1 : 0);
+        }
+
+        int i = 0;
+        while (i < ops.length) {
+            if (ops[i] == EQUAL) {
+                i++;
+                continue;
+            }
+            // Extend the hunk while the next change is within 2 * context
+            int start = Math.max(0, i - context);
+            int end = i;
+            int lastChange = i;
+            while (end < ops.length) {
+                if (ops[end] != EQUAL) {
+                    lastChange = end;
+                } else if (end - lastChange > 2 * context) {
+                    break;
+                }
+                end++;
+            }
+            end = Math.min(ops.length, lastChange + context + 1);
+
+            int aCount = aAt[end] - aAt[start];
+            int bCount = bAt[end] - bAt[start];
+            out.append("@@ -").append(range(aAt[start], aCount))
+               .append(" +").append(range(bAt[start], bCount)).append(" @@\n");
+
+            for (int j = start; j < end; j++) {
+                switch (ops[j]) {
+                    case EQUAL -> out.append(' ').append(a[aAt[j]]).append('\n');
+                    case DELETE -> out.append('-').append(a[aAt[j]]).append('\n');
+                    default -> out.append('+').append(b[bAt[j]]).append('\n');
+                }
+            }
+            i = end;
+        }
+    }
+
+    // Unified diff convention: an empty range names the line before it
+    private static String range(int zeroBasedStart, int count) {
+        int start = count == 0 ? zeroBasedStart : zeroBasedStart + 1;
+        return count == 1 ? String.valueOf(start) : start + "," + count;
+    }
+
+    private static String[] lines(String text) {
+        if (text.isEmpty()) return new String[0];
+        String[] lines = text.split("\n", -1);
+        // A final newline ends the last line rather than starting another
+        return text.endsWith("\n") ? Arrays.copyOf(lines, lines.length - 1) : lines;
+    }
+
+    private static int[] intern(String[] lines, Map<String, Integer> ids) {
+        int[] out = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            Integer id = ids.get(lines[i]);
+            if (id == null) {
+                id = ids.size();
+                ids.put(lines[i], id);
+            }
+            out[i] = id;
+        }
+        return out;
+    }
+}
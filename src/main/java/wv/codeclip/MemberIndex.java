@@ -0,0 +1,456 @@
+package wv.codeclip;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The members of a class's primary type with their source ranges: fields,
+ * constructors, methods, initializers and nested types, each including its
+ * leading comments and annotations.
+ *
+ * Members are identified by a signature that survives edits to their
+ * bodies ({@code method name(int,List<String>)}, {@code field name}, ...),
+ * so a selection of signatures can be re-applied to a newer version of the
+ * file. Indexes are cached by content and built with a single scan;
+ * rendering a selection is memoized, so an unchanged class renders to the
+ * same String instance.
+ */
+public final class MemberIndex {
+
+    public enum Kind { FIELD, CONSTRUCTOR, METHOD, INITIALIZER, TYPE }
+
+    public record Member(Kind kind, String name, String signature, String display, int start, int end) {}
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final Pattern TYPE_HEADER = Pattern.compile(
+            "\\b(class|interface|enum|record)\\s+([A-Za-z_$][\\w$]*)"
+    );
+    private static final Pattern ANNOTATION = Pattern.compile(
+            "@(?!interface\\b)[\\w.$]+(?:\\s*\\((?:[^()]|\\([^()]*\\))*\\))?"
+    );
+    private static final Pattern IDENTIFIER_BEFORE_PAREN = Pattern.compile(
+            "([A-Za-z_$][\\w$]*)\\s*$"
+    );
+
+    private static final Map<String, MemberIndex> CACHE = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MemberIndex> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final String source;
+    private final int bodyStart;
+    private final int bodyEnd;
+    private final List<Member> members;
+
+    // Last selection rendered
+    private Set<String> renderedFor;
+    private String rendered;
+
+    private MemberIndex(String source, int bodyStart, int bodyEnd, List<Member> members) {
+        this.source = source;
+        this.bodyStart = bodyStart;
+        this.bodyEnd = bodyEnd;
+        this.members = List.copyOf(members);
+    }
+
+    /** The index of {@code source}, from the cache when the same content was indexed before. */
+    public static MemberIndex of(String source) {
+        // Keyed by the content itself: String caches its hash, and equals
+        // on a hit short-circuits for the same instance
+        synchronized (CACHE) {
+            MemberIndex cached = CACHE.get(source);
+            if (cached != null) return cached;
+        }
+        MemberIndex index = build(source);
+        synchronized (CACHE) {
+            CACHE.put(source, index);
+        }
+        return index;
+    }
+
+    /** Empty when no type body was found. */
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * The file reduced to what precedes the type body (package, imports,
+     * type header, enum constants) plus the selected members, in source
+     * order, with a marker where members were left out. Unmatched
+     * signatures fall back to a member of the same kind and name, so a
+     * method whose parameters changed stays selected. Returns the source
+     * unchanged when no type body was found.
+     */
+    public synchronized String render(Set<String> signatures) {
+        if (bodyStart >= source.length()) return source;
+        if (signatures.equals(renderedFor)) return rendered;
+
+        Set<Member> selected = resolve(signatures);
+        StringBuilder out = new StringBuilder(source.length() / 2);
+        out.append(source, 0, bodyStart).append(source.charAt(bodyStart - 1) == '{' ? "\n" : "\n\n");
+
+        int omitted = 0;
+        for (Member m : members) {
+            if (!selected.contains(m)) {
+                omitted++;
+                continue;
+            }
+            if (omitted > 0) appendOmitted(out, omitted);
+            omitted = 0;
+            out.append(indentOf(m.start)).append(source, m.start, m.end).append("\n\n");
+        }
+        if (omitted > 0) appendOmitted(out, omitted);
+
+        out.append(source, bodyEnd, source.length());
+        renderedFor = Set.copyOf(signatures);
+        rendered = out.toString();
+        return rendered;
+    }
+
+    private Set<Member> resolve(Set<String> signatures) {
+        Set<Member> selected = new HashSet<>();
+        Set<String> unmatched = new HashSet<>();
+        for (String sig : signatures) {
+            Member m = bySignature(sig);
+            if (m != null) selected.add(m); else unmatched.add(nameKey(sig));
+        }
+        for (Member m : members) {
+            if (!selected.contains(m) && unmatched.remove(nameKey(m.signature))) selected.add(m);
+        }
+        return selected;
+    }
+
+    private Member bySignature(String signature) {
+        for (Member m : members) {
+            if (m.signature.equals(signature)) return m;
+        }
+        return null;
+    }
+
+    // "method foo(int)" -> "method foo"
+    private static String nameKey(String signature) {
+        int paren = signature.indexOf('(');
+        return paren < 0 ? signature : signature.substring(0, paren);
+    }
+
+    private static void appendOmitted(StringBuilder out, int count) {
+        out.append("    // ... ").append(count).append(count == 1 ? " member" : " members")
+           .append(" omitted\n\n");
+    }
+
+    private String indentOf(int start) {
+        int lineStart = source.lastIndexOf('\n', start - 1) + 1;
+        int i = lineStart;
+        while (i < start && (source.charAt(i) == ' ' || source.charAt(i) == '\t')) i++;
+        return i == start ? source.substring(lineStart, start) : "";
+    }
+
+    // ------------------------------------------------------------------
+    // Scanning
+    // ------------------------------------------------------------------
+
+    private static MemberIndex build(String source) {
+        int n = source.length();
+        StringBuilder head = new StringBuilder();
+        int i = 0;
+
+        // Find the first top-level type's opening brace
+        int open = -1;
+        String typeKind = null;
+        String typeName = null;
+        while (i < n) {
+            int skipped = skipTrivia(source, i);
+            if (skipped != i) {
+                i = skipped;
+                head.append(' ');
+                continue;
+            }
+            char c = source.charAt(i);
+            if (c == '{') {
+                Matcher m = TYPE_HEADER.matcher(ANNOTATION.matcher(head).replaceAll(" "));
+                if (m.find()) {
+                    typeKind = m.group(1);
+                    typeName = m.group(2);
+                    open = i;
+                    break;
+                }
+                i = skipBlock(source, i);
+                head.setLength(0);
+                continue;
+            }
+            head.append(c);
+            if (c == ';') head.setLength(0);
+            i++;
+        }
+        if (open < 0) return new MemberIndex(source, n, n, List.of());
+
+        List<Member> members = new ArrayList<>();
+        int pos = open + 1;
+        int[] end = new int[1];
+
+        // Enum constants always go with the header; the type is invalid without them
+        if (typeKind.equals("enum")) {
+            scanMember(source, skipWhitespace(source, pos), true, end);
+            pos = end[0];
+        }
+        int headerEnd = pos;
+        int initializers = 0;
+
+        while (true) {
+            // A member starts with its leading comments
+            int start = skipWhitespace(source, pos);
+            int firstToken = start;
+            while (firstToken < n && source.charAt(firstToken) == '/') {
+                int skipped = skipTrivia(source, firstToken);
+                if (skipped == firstToken) break;
+                firstToken = skipWhitespace(source, skipped);
+            }
+            if (firstToken >= n || source.charAt(firstToken) == '}') {
+                int close = firstToken >= n ? n : firstToken;
+                return new MemberIndex(source, headerEnd, lineStartOf(source, close), members);
+            }
+
+            String declaration = scanMember(source, firstToken, false, end);
+            Member member = classify(declaration, typeName, source, start, end[0]);
+            if (member != null && member.kind() == Kind.INITIALIZER) {
+                // Initializers have no name; the n-th one keeps its place across edits
+                member = new Member(Kind.INITIALIZER, member.name(), member.name() + " #" + ++initializers,
+                        member.display(), start, end[0]);
+            }
+            if (member != null) members.add(member);
+            pos = end[0];
+        }
+    }
+
+    /**
+     * Scans one member starting at {@code from}; stores its end in
+     * {@code end[0]} and returns its declaration head (text before the
+     * body or initializer, comments and annotations removed).
+     */
+    private static String scanMember(String source, int from, boolean constants, int[] end) {
+        int n = source.length();
+        StringBuilder head = new StringBuilder();
+        boolean headDone = false;
+        boolean assigned = false;
+        int parens = 0;
+        int i = from;
+
+        while (i < n) {
+            int skipped = skipTrivia(source, i);
+            if (skipped != i) {
+                i = skipped;
+                if (!headDone) head.append(' ');
+                continue;
+            }
+            char c = source.charAt(i);
+
+            if (c == '(') parens++;
+            if (c == ')') parens--;
+
+            if (parens == 0 && c == '{') {
+                int after = skipBlock(source, i);
+                // An initializer ("= {...}", "= new X() {...}", a lambda) continues to ';'
+                if (constants || assigned) {
+                    headDone = true;
+                    i = after;
+                    continue;
+                }
+                end[0] = after;
+                return head.toString();
+            }
+            if (parens == 0 && c == ';') {
+                end[0] = i + 1;
+                return head.toString();
+            }
+            if (parens == 0 && c == '}') {
+                // Enum constants without a trailing ';'
+                end[0] = i;
+                return head.toString();
+            }
+            if (parens == 0 && c == '=' && !headDone) {
+                headDone = true;
+                assigned = true;
+            }
+            if (!headDone) head.append(c);
+            i++;
+        }
+        end[0] = n;
+        return head.toString();
+    }
+
+    private static Member classify(String declaration, String typeName,
+                                   String source, int start, int end) {
+        if (end <= start) return null;
+        String head = ANNOTATION.matcher(declaration).replaceAll(" ").replaceAll("\\s+", " ").trim();
+        String display = head.length() > 100 ? head.substring(0, 97) + "..." : head;
+
+        if (head.isEmpty() || head.equals("static")) {
+            if (source.charAt(end - 1) == ';') return null;  // stray ';'
+            String name = head.isEmpty() ? "initializer" : "static initializer";
+            return new Member(Kind.INITIALIZER, name, name, name, start, end);
+        }
+
+        Matcher type = TYPE_HEADER.matcher(head);
+        int paren = head.indexOf('(');
+        if (type.find() && (paren < 0 || type.start() < paren)) {
+            String name = type.group(2);
+            return new Member(Kind.TYPE, name, type.group(1) + " " + name, display, start, end);
+        }
+
+        if (paren >= 0) {
+            Matcher id = IDENTIFIER_BEFORE_PAREN.matcher(head.substring(0, paren));
+            if (id.find()) {
+                String name = id.group(1);
+                Kind kind = name.equals(typeName) ? Kind.CONSTRUCTOR : Kind.METHOD;
+                String params = parameterTypes(head.substring(paren + 1, matchingParen(head, paren)));
+                String sig = (kind == Kind.CONSTRUCTOR ? "constructor " : "method ") + name + "(" + params + ")";
+                return new Member(kind, name, sig, display, start, end);
+            }
+        }
+
+        // Compact record constructor: "public Name"
+        String[] tokens = head.split(" ");
+        String last = tokens[tokens.length - 1];
+        if (last.equals(typeName) && source.charAt(end - 1) == '}') {
+            return new Member(Kind.CONSTRUCTOR, last, "constructor " + last, display, start, end);
+        }
+
+        String names = fieldNames(head);
+        return new Member(Kind.FIELD, names, "field " + names, display, start, end);
+    }
+
+    private static int matchingParen(String s, int open) {
+        int depth = 0;
+        for (int i = open; i < s.length(); i++) {
+            if (s.charAt(i) == '(') depth++;
+            if (s.charAt(i) == ')' && --depth == 0) return i;
+        }
+        return s.length();
+    }
+
+    // "final List<String> a, int... b" -> "List<String>,int..."
+    private static String parameterTypes(String params) {
+        List<String> types = new ArrayList<>();
+        int depth = 0;
+        int from = 0;
+        for (int i = 0; i <= params.length(); i++) {
+            char c = i < params.length() ? params.charAt(i) : ',';
+            if (c == '<') depth++;
+            if (c == '>') depth--;
+            if (c == ',' && depth == 0) {
+                String p = params.substring(from, i).replace("final ", "").trim();
+                int cut = p.lastIndexOf(' ');
+                if (!p.isEmpty()) types.add((cut < 0 ? p : p.substring(0, cut)).replace(" ", ""));
+                from = i + 1;
+            }
+        }
+        return String.join(",", types);
+    }
+
+    // "private int a = 1, b" -> "a,b"
+    private static String fieldNames(String head) {
+        List<String> names = new ArrayList<>();
+        int depth = 0;
+        int from = 0;
+        for (int i = 0; i <= head.length(); i++) {
+            char c = i < head.length() ? head.charAt(i) : ',';
+            if (c == '<' || c == '(') depth++;
+            if (c == '>' || c == ')') depth--;
+            if (c == ',' && depth == 0) {
+                String part = head.substring(from, i).trim();
+                int cut = part.lastIndexOf(' ');
+                String name = cut < 0 ? part : part.substring(cut + 1);
+                names.add(name.replace("[]", ""));
+                from = i + 1;
+            }
+        }
+        return String.join(",", names);
+    }
+
+    // --- Lexing (comments and literals as in SignatureExtractor) ---
+
+    /** @return index past a comment or literal at {@code i}, or {@code i} if there is none */
+    private static int skipTrivia(String source, int i) {
+        int n = source.length();
+        if (i >= n) return i;
+        char c = source.charAt(i);
+        char next = i + 1 < n ? source.charAt(i + 1) : '\0';
+        if (c == '/' && next == '/') {
+            int end = source.indexOf('\n', i);
+            return end < 0 ? n : end;
+        }
+        if (c == '/' && next == '*') {
+            int end = source.indexOf("*/", i + 2);
+            return end < 0 ? n : end + 2;
+        }
+        if (c == '"' || c == '\'') return skipLiteral(source, i);
+        return i;
+    }
+
+    private static int skipWhitespace(String source, int i) {
+        while (i < source.length() && Character.isWhitespace(source.charAt(i))) i++;
+        return i;
+    }
+
+    private static int lineStartOf(String source, int i) {
+        int lineStart = source.lastIndexOf('\n', i - 1) + 1;
+        for (int k = lineStart; k < i; k++) {
+            if (!Character.isWhitespace(source.charAt(k))) return i;
+        }
+        return lineStart;
+    }
+
+    private static int skipBlock(String source, int open) {
+        int depth = 0;
+        int i = open;
+        int n = source.length();
+        while (i < n) {
+            int skipped = skipTrivia(source, i);
+            if (skipped != i) {
+                i = skipped;
+                continue;
+            }
+            char c = source.charAt(i);
+            if (c == '{') depth++;
+            if (c == '}' && --depth == 0) return i + 1;
+            i++;
+        }
+        return n;
+    }
+
+    private static int skipLiteral(String source, int start) {
+        int n = source.length();
+        char quote = source.charAt(start);
+
+        if (quote == '"' && source.startsWith("\"\"\"", start)) {
+            int i = start + 3;
+            while (i < n) {
+                if (source.charAt(i) == '\\') {
+                    i += 2;
+                } else if (source.startsWith("\"\"\"", i)) {
+                    return i + 3;
+                } else {
+                    i++;
+                }
+            }
+            return n;
+        }
+
+        int i = start + 1;
+        while (i < n) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote || c == '\n') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+}
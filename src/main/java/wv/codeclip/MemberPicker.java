@@ -0,0 +1,106 @@
+package wv.codeclip;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Dialog for choosing which members of a class go into the bundle.
+ */
+public final class MemberPicker {
+
+    private MemberPicker() {}
+
+    /** Returned when every member is checked; compare by identity. */
+    public static final Set<String> WHOLE_CLASS = Collections.unmodifiableSet(new HashSet<>());
+
+    /**
+     * @param selected the current selection, or null for the whole class
+     * @return empty if cancelled; otherwise the chosen signatures, or
+     *         {@link #WHOLE_CLASS} when every member is checked
+     */
+    public static Optional<Set<String>> pick(Component parent, String className,
+                                             MemberIndex index, Set<String> selected) {
+        List<MemberIndex.Member> members = index.getMembers();
+        if (members.isEmpty()) {
+            JOptionPane.showMessageDialog(
+                    parent,
+                    "No members found in " + className + ".",
+                    "Members",
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return Optional.empty();
+        }
+
+        JPanel list = new JPanel();
+        list.setLayout(new BoxLayout(list, BoxLayout.Y_AXIS));
+        List<JCheckBox> boxes = new ArrayList<>();
+        for (MemberIndex.Member m : members) {
+            JCheckBox box = new JCheckBox(label(m), selected == null || selected.contains(m.signature()));
+            box.putClientProperty("signature", m.signature());
+            boxes.add(box);
+            list.add(box);
+        }
+
+        JTextField filter = new JTextField();
+        filter.getDocument().addDocumentListener(new SimpleDocumentListener(e -> {
+            String text = filter.getText().trim().toLowerCase(Locale.ROOT);
+            for (JCheckBox box : boxes) {
+                box.setVisible(text.isEmpty() || box.getText().toLowerCase(Locale.ROOT).contains(text));
+            }
+            list.revalidate();
+            list.repaint();
+        }));
+
+        // All / None act on the members the filter shows
+        JButton all = new JButton("All");
+        JButton none = new JButton("None");
+        all.addActionListener(e -> boxes.forEach(b -> { if (b.isVisible()) b.setSelected(true); }));
+        none.addActionListener(e -> boxes.forEach(b -> { if (b.isVisible()) b.setSelected(false); }));
+
+        JPanel top = new JPanel(new BorderLayout(5, 5));
+        top.add(new JLabel("Filter:"), BorderLayout.WEST);
+        top.add(filter, BorderLayout.CENTER);
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.add(all);
+        buttons.add(none);
+        top.add(buttons, BorderLayout.EAST);
+
+        JScrollPane scroll = new JScrollPane(list);
+        scroll.setPreferredSize(new Dimension(560, Math.min(480, 40 + 24 * members.size())));
+        scroll.getVerticalScrollBar().setUnitIncrement(16);
+
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.add(top, BorderLayout.NORTH);
+        content.add(scroll, BorderLayout.CENTER);
+        content.add(new JLabel("Package, imports and the type header are always included."),
+                BorderLayout.SOUTH);
+
+        int choice = JOptionPane.showConfirmDialog(
+                parent,
+                content,
+                "Members of " + className,
+                JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE
+        );
+        if (choice != JOptionPane.OK_OPTION) return Optional.empty();
+
+        Set<String> chosen = new LinkedHashSet<>();
+        for (JCheckBox box : boxes) {
+            if (box.isSelected()) chosen.add((String) box.getClientProperty("signature"));
+        }
+        return Optional.of(chosen.size() == boxes.size() ? WHOLE_CLASS : chosen);
+    }
+
+    private static String label(MemberIndex.Member m) {
+        String kind = switch (m.kind()) {
+            case FIELD -> "field";
+            case CONSTRUCTOR -> "constructor";
+            case METHOD -> "method";
+            case INITIALIZER -> "initializer";
+            case TYPE -> "type";
+        };
+        return kind + ":  " + m.display();
+    }
+}
@@ -9,15 +9,20 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class PasteClassHandler {
 
     private final ClassRepository repo;
+    private final SourceIndex sourceIndex;
     private final JFrame parent;
     private final Runnable refreshCallback;
     private final java.util.function.Consumer<String> statusLogger;
+    private final CompileChecker compileChecker;
 
     // Matches: class / interface / enum / record with modifiers
     private static final Pattern TYPE_PATTERN = Pattern.compile(
@@ -36,14 +41,18 @@ public class PasteClassHandler {
 
     public PasteClassHandler(
             ClassRepository repo,
+            SourceIndex sourceIndex,
             JFrame parent,
             Runnable refreshCallback,
-            java.util.function.Consumer<String> statusLogger
+            java.util.function.Consumer<String> statusLogger,
+            CompileChecker compileChecker
     ) {
         this.repo = repo;
+        this.sourceIndex = sourceIndex;
         this.parent = parent;
         this.refreshCallback = refreshCallback;
         this.statusLogger = statusLogger;
+        this.compileChecker = compileChecker;
     }
 
     // --- Main entry point ---
@@ -58,13 +67,35 @@ public class PasteClassHandler {
             );
             return;
         }
-        handlePaste(classCode);
+        if (PatchApplier.looksLikePatch(classCode)) {
+            handlePatch(classCode);
+        } else {
+            handlePaste(classCode, parse(classCode), false);
+        }
+    }
+
+    /**
+     * Entry point for the clipboard watcher: pastes {@code classCode} unless
+     * it is not exactly one top-level type or is identical to the loaded
+     * version. Nothing copied in passing overwrites a file unasked.
+     */
+    public void handleWatchedSource(String classCode) {
+        // Several classes are a bundle or an excerpt, never one file's content
+        ParsedSource source = parse(classCode);
+        if (source.topLevelTypes() != 1) return;
+
+        File file = findExistingFile(source.packageName(), source.className());
+        if (file != null) {
+            String loaded = repo.snapshot().getClassCodeMap().get(file.getAbsolutePath());
+            if (classCode.equals(loaded)) return;
+        }
+        handlePaste(classCode, source, true);
     }
 
     // --- Core paste handler ---
-    private void handlePaste(String classCode) {
-        String packageName = parsePackage(classCode);
-        String className = parseClassName(classCode);
+    private void handlePaste(String classCode, ParsedSource source, boolean confirmOverwrite) {
+        String packageName = source.packageName();
+        String className = source.className();
 
         if (className == null) {
             JOptionPane.showMessageDialog(
@@ -89,13 +120,50 @@ public class PasteClassHandler {
             if (choice != JOptionPane.OK_OPTION) return;
         }
 
+        if (compileChecker != null) {
+            List<String> errors = compileErrors(className + ".java", classCode);
+            if (!errors.isEmpty()) {
+                StringBuilder errorText = new StringBuilder();
+                errorText.append("The new code for class ")
+                        .append(className)
+                        .append(" does not compile:\n\n");
+                for (String e : errors) {
+                    errorText.append(e).append("\n");
+                }
+
+                while (true) {
+                    Object[] options = {"Write Anyway", "Copy Error", "Cancel"};
+                    int choice = JOptionPane.showOptionDialog(
+                            parent,
+                            errorText.toString(),
+                            "Compile Errors",
+                            JOptionPane.DEFAULT_OPTION,
+                            JOptionPane.WARNING_MESSAGE,
+                            null,
+                            options,
+                            options[2]
+                    );
+
+                    if (choice == 0) break;
+                    if (choice == 1) {
+                        copyToClipboard(errorText.toString());
+                        continue;
+                    }
+                    return;
+                }
+            }
+        }
+
         File file = findExistingFile(packageName, className);
         boolean isNewFile = file == null;
 
         if (!isNewFile) {
+            // Watch mode pastes without a click; the missing-methods prompt also counts
+            boolean askOverwrite = confirmOverwrite;
             String oldCode;
             try {
-                oldCode = Files.readString(file.toPath());
+                // All of it: methods past a preview's cut are not missing
+                oldCode = repo.getFileCache().readFull(file);
             } catch (IOException e) {
                 JOptionPane.showMessageDialog(
                         parent,
@@ -143,6 +211,21 @@ public class PasteClassHandler {
                     }
                     return;
                 }
+                askOverwrite = false;
+            }
+
+            if (askOverwrite) {
+                int choice = JOptionPane.showConfirmDialog(
+                        parent,
+                        "Class: " + className + "\n\n" +
+                                "Copied source replaces the existing file:\n" +
+                                file.getAbsolutePath() + "\n\n" +
+                                "Overwrite it?",
+                        "Overwrite Class",
+                        JOptionPane.OK_CANCEL_OPTION,
+                        JOptionPane.QUESTION_MESSAGE
+                );
+                if (choice != JOptionPane.OK_OPTION) return;
             }
         }
 
@@ -163,14 +246,17 @@ public class PasteClassHandler {
 
                 if (choice != JOptionPane.OK_OPTION) return;
                 file = createClassFile(packageName, className, classCode, root);
+                sourceIndex.register(qualifiedName(packageName, className), file);
             } else {
-                Files.writeString(file.toPath(), classCode);
+                repo.getFileCache().write(file, classCode);
             }
 
             String path = file.getAbsolutePath();
-            repo.getClassCodeMap().put(path, classCode);
-            repo.getClassFileMap().put(path, file);
-            repo.getDisabledClasses().remove(path);
+            File written = file;
+            repo.update(batch -> batch
+                    .put(path, written, classCode)
+                    .setDisabled(path, false)
+                    .markPasted(path, System.currentTimeMillis()));
 
             refreshCallback.run();
 
@@ -192,6 +278,275 @@ public class PasteClassHandler {
         }
     }
 
+    // --- Patch mode ---
+    private void handlePatch(String patchText) {
+        List<PatchApplier.FilePatch> patches;
+        try {
+            patches = PatchApplier.parse(patchText);
+        } catch (PatchApplier.PatchException e) {
+            showPatchError(e.getMessage());
+            return;
+        }
+
+        ClassRepository.Snapshot snapshot = repo.snapshot();
+        Map<String, File> targets = new LinkedHashMap<>();
+        Map<String, String> oldCode = new HashMap<>();
+        Map<String, String> newCode = new LinkedHashMap<>();
+        List<String> notes = new ArrayList<>();
+
+        // Compute every result before writing anything
+        try {
+            for (PatchApplier.FilePatch patch : patches) {
+                String path = patch.getName() != null
+                        ? resolvePatchTarget(snapshot, patch.getName())
+                        : findPatchTarget(snapshot, patch.getFirstSearchText());
+                File file = snapshot.getClassFileMap().get(path);
+
+                String original = newCode.containsKey(path) ? newCode.get(path) : readFile(file);
+                oldCode.putIfAbsent(path, original);
+                newCode.put(path, PatchApplier.apply(original, patch, notes));
+                targets.put(path, file);
+            }
+        } catch (PatchApplier.PatchException e) {
+            showPatchError(e.getMessage());
+            return;
+        }
+
+        StringBuilder summary = new StringBuilder("Apply patch to ")
+                .append(newCode.size()).append(newCode.size() == 1 ? " file:\n" : " files:\n");
+        boolean warnings = false;
+        StringBuilder problems = new StringBuilder();
+
+        for (String path : newCode.keySet()) {
+            String name = targets.get(path).getName();
+            summary.append("• ").append(name).append('\n');
+
+            if (!JavaBraceEndChecker.hasCompleteEnd(newCode.get(path))) {
+                problems.append("\n").append(name).append(": incomplete or unbalanced braces after patching\n");
+                warnings = true;
+            }
+            if (compileChecker != null) {
+                List<String> errors = compileErrors(name, newCode.get(path));
+                if (!errors.isEmpty()) {
+                    problems.append("\n").append(name).append(" does not compile:\n");
+                    for (String e : errors) problems.append(e).append('\n');
+                    warnings = true;
+                }
+            }
+            List<String> missing = MissingMethodDetector.findMissingMethods(oldCode.get(path), newCode.get(path));
+            if (!missing.isEmpty()) {
+                problems.append("\n").append(name).append(" has these methods missing:\n");
+                for (String m : missing) problems.append("• ").append(m).append('\n');
+                warnings = true;
+            }
+        }
+        if (!notes.isEmpty()) {
+            summary.append("\nInexact matches:\n");
+            for (String n : notes) summary.append("• ").append(n).append('\n');
+        }
+        summary.append(problems);
+
+        while (true) {
+            Object[] options = {"Apply", "Copy Error", "Cancel"};
+            int choice = JOptionPane.showOptionDialog(
+                    parent,
+                    summary.toString(),
+                    warnings ? "Patch Validation Warnings" : "Apply Patch",
+                    JOptionPane.DEFAULT_OPTION,
+                    warnings ? JOptionPane.WARNING_MESSAGE : JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    options,
+                    options[0]
+            );
+
+            if (choice == 0) break;
+            if (choice == 1) {
+                copyToClipboard(summary.toString());
+                continue;
+            }
+            return;
+        }
+
+        List<String> written = new ArrayList<>();
+        try {
+            for (String path : newCode.keySet()) {
+                repo.getFileCache().write(targets.get(path), newCode.get(path));
+                written.add(path);
+            }
+        } catch (IOException e) {
+            // All or nothing: put back the files already written
+            List<String> restoreFailed = new ArrayList<>();
+            for (String path : written) {
+                try {
+                    repo.getFileCache().write(targets.get(path), oldCode.get(path));
+                } catch (IOException ex) {
+                    restoreFailed.add(path);
+                }
+            }
+            written.retainAll(restoreFailed);
+
+            StringBuilder message = new StringBuilder("Failed to write patched file:\n")
+                    .append(e.getMessage())
+                    .append("\n\n");
+            if (written.isEmpty()) {
+                message.append("No file was changed.");
+            } else {
+                message.append("These files were patched and could not be restored:\n");
+                for (String path : written) {
+                    message.append("• ").append(targets.get(path).getName()).append('\n');
+                }
+            }
+            JOptionPane.showMessageDialog(
+                    parent,
+                    message.toString(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+            );
+        }
+        if (written.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        repo.update(batch -> {
+            for (String path : written) {
+                batch.put(path, targets.get(path), newCode.get(path)).markPasted(path, now);
+            }
+        });
+
+        refreshCallback.run();
+
+        if (statusLogger != null) {
+            List<String> names = new ArrayList<>();
+            for (String path : written) names.add(targets.get(path).getName());
+            statusLogger.accept("Patch Applied: " + String.join(", ", names));
+        }
+    }
+
+    private List<String> compileErrors(String fileName, String code) {
+        CompileChecker.Report report = checkInBackground(fileName, code);
+        if (statusLogger != null) {
+            statusLogger.accept("Compile check " + fileName + ": "
+                    + (report.passed() ? "OK" : report.errors().size() + " error(s)")
+                    + " (" + report.millis() + " ms)");
+        }
+        return report.errors();
+    }
+
+    // A check waits for the dependency build, which can take seconds right
+    // after loading classes; a wait dialog keeps the window responsive
+    private CompileChecker.Report checkInBackground(String fileName, String code) {
+        SwingWorker<CompileChecker.Report, Void> worker = new SwingWorker<>() {
+            @Override
+            protected CompileChecker.Report doInBackground() {
+                return compileChecker.check(fileName, code);
+            }
+        };
+
+        JProgressBar bar = new JProgressBar();
+        bar.setIndeterminate(true);
+        JOptionPane pane = new JOptionPane(
+                new Object[]{"Compiling " + fileName + " against the loaded classes...", bar},
+                JOptionPane.INFORMATION_MESSAGE,
+                JOptionPane.DEFAULT_OPTION,
+                null,
+                new Object[0]
+        );
+        JDialog dialog = pane.createDialog(parent, "Compile Check");
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        worker.addPropertyChangeListener(e -> {
+            if (e.getNewValue() == SwingWorker.StateValue.DONE) dialog.dispose();
+        });
+
+        worker.execute();
+        try {
+            // A warm check is done before the dialog would even paint
+            return worker.get(200, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            dialog.setVisible(true);
+        } catch (InterruptedException | ExecutionException e) {
+            return failedCheck(e);
+        }
+        try {
+            return worker.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return failedCheck(e);
+        }
+    }
+
+    private static CompileChecker.Report failedCheck(Exception e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        return new CompileChecker.Report(List.of("Compiler failure: " + cause), 0);
+    }
+
+    // The whole file, never a truncated preview: the result is written back
+    private String readFile(File file) throws PatchApplier.PatchException {
+        try {
+            return repo.getFileCache().readFull(file);
+        } catch (IOException e) {
+            throw new PatchApplier.PatchException("Failed to read " + file + ":\n" + e.getMessage());
+        }
+    }
+
+    // Matches the patch's path against the loaded files by longest path suffix
+    private static String resolvePatchTarget(ClassRepository.Snapshot snapshot, String name)
+            throws PatchApplier.PatchException {
+        List<String> matches = new ArrayList<>();
+        for (String path : snapshot.getClassFileMap().keySet()) {
+            String p = path.replace('\\', '/');
+            if (p.equals(name) || p.endsWith("/" + name)) matches.add(path);
+        }
+        if (matches.isEmpty()) {
+            String simple = name.substring(name.lastIndexOf('/') + 1);
+            for (String path : snapshot.getClassFileMap().keySet()) {
+                if (new File(path).getName().equals(simple)) matches.add(path);
+            }
+        }
+        if (matches.isEmpty()) {
+            throw new PatchApplier.PatchException("Patched file is not loaded: " + name);
+        }
+        if (matches.size() > 1) {
+            throw new PatchApplier.PatchException("Patched file name is ambiguous: " + name
+                    + "\n" + String.join("\n", matches));
+        }
+        return matches.get(0);
+    }
+
+    // For SEARCH/REPLACE blocks without a file name: the one loaded file containing the text
+    private String findPatchTarget(ClassRepository.Snapshot snapshot, String search)
+            throws PatchApplier.PatchException {
+        String found = null;
+        for (Map.Entry<String, String> e : snapshot.getClassCodeMap().entrySet()) {
+            if (e.getValue().replace("\r\n", "\n").contains(search)) {
+                if (found != null) {
+                    throw new PatchApplier.PatchException("SEARCH block has no file name and matches several classes.");
+                }
+                found = e.getKey();
+            }
+        }
+        if (found == null) {
+            throw new PatchApplier.PatchException("SEARCH block has no file name and matches no loaded class.");
+        }
+        return found;
+    }
+
+    private void showPatchError(String message) {
+        String text = "Patch not applied. Nothing was written.\n\n" + message;
+        while (true) {
+            Object[] options = {"OK", "Copy Error"};
+            int choice = JOptionPane.showOptionDialog(
+                    parent,
+                    text,
+                    "Patch Failed",
+                    JOptionPane.DEFAULT_OPTION,
+                    JOptionPane.ERROR_MESSAGE,
+                    null,
+                    options,
+                    options[0]
+            );
+            if (choice != 1) return;
+            copyToClipboard(text);
+        }
+    }
+
     // --- Clipboard ---
     private String getClipboardText() {
         try {
@@ -211,19 +566,49 @@ public class PasteClassHandler {
     }
 
     // --- Parsing ---
-    private String parsePackage(String code) {
+
+    /** Package, first type name (null if none) and number of top-level types of pasted source. */
+    record ParsedSource(String packageName, String className, int topLevelTypes) {}
+
+    // Strips comments and strings once for both scans; package-private for the scale benchmark
+    static ParsedSource parse(String code) {
+        String clean = stripCommentsAndStrings(code);
+        return new ParsedSource(parsePackage(code), findClassName(clean), countTopLevelTypes(clean));
+    }
+
+    private static String parsePackage(String code) {
         Matcher m = Pattern.compile("package\\s+([a-zA-Z0-9_.]+)\\s*;")
                 .matcher(code);
         return m.find() ? m.group(1) : null;
     }
 
-    private String parseClassName(String code) {
-        String clean = stripCommentsAndStrings(code);
+    private static String parseClassName(String code) {
+        return findClassName(stripCommentsAndStrings(code));
+    }
+
+    private static String findClassName(String clean) {
         Matcher m = TYPE_PATTERN.matcher(clean);
         return m.find() ? m.group(2) : null;
     }
 
-    private String stripCommentsAndStrings(String code) {
+    // Types declared at brace depth zero; nested and local types don't count
+    private static int countTopLevelTypes(String clean) {
+        Matcher m = TYPE_PATTERN.matcher(clean);
+        int count = 0;
+        int depth = 0;
+        int scanned = 0;
+        while (m.find()) {
+            for (; scanned < m.start(1); scanned++) {
+                char c = clean.charAt(scanned);
+                if (c == '{') depth++;
+                else if (c == '}') depth--;
+            }
+            if (depth == 0) count++;
+        }
+        return count;
+    }
+
+    private static String stripCommentsAndStrings(String code) {
         code = code.replaceAll("(?s)/\\*.*?\\*/", " ");
         code = code.replaceAll("(?m)//.*?$", " ");
         code = code.replaceAll("\"(?:\\\\.|[^\"\\\\])*\"", "\"\"");
@@ -233,9 +618,12 @@ public class PasteClassHandler {
 
     // --- Source root detection ---
     private File detectSourceRoot(String packageName, String className) {
+        File indexedRoot = sourceIndex.sourceRootFor(packageName);
+        if (indexedRoot != null) return indexedRoot;
+
         if (packageName != null && !packageName.isEmpty()) {
             String pkgPath = packageName.replace('.', File.separatorChar);
-            for (File file : repo.getClassFileMap().values()) {
+            for (File file : repo.snapshot().getClassFileMap().values()) {
                 File parent = file.getParentFile();
                 if (parent == null) continue;
 
@@ -249,9 +637,9 @@ public class PasteClassHandler {
         }
 
         Map<String, File> mainClasses = new HashMap<>();
-        for (File file : repo.getClassFileMap().values()) {
+        for (File file : repo.snapshot().getClassFileMap().values()) {
             try {
-                String code = Files.readString(file.toPath());
+                String code = repo.getFileCache().read(file);
                 if (MAIN_METHOD_PATTERN.matcher(code).find()) {
                     mainClasses.put(parseClassName(code), file);
                 }
@@ -278,9 +666,9 @@ public class PasteClassHandler {
             }
         }
 
-        if (!repo.getClassFileMap().isEmpty()) {
+        if (!repo.snapshot().getClassFileMap().isEmpty()) {
             List<File> parents = new ArrayList<>();
-            for (File f : repo.getClassFileMap().values()) {
+            for (File f : repo.snapshot().getClassFileMap().values()) {
                 parents.add(f.getParentFile());
             }
             File common = findCommonAncestor(parents);
@@ -312,6 +700,12 @@ public class PasteClassHandler {
 
     // --- File lookup ---
     private File findExistingFile(String packageName, String className) {
+        File loaded = findLoadedFile(packageName, className);
+        if (loaded != null) return loaded;
+
+        File indexed = sourceIndex.lookup(qualifiedName(packageName, className));
+        if (indexed != null) return indexed;
+
         File root = detectSourceRoot(packageName, className);
         String path = packageName != null
                 ? packageName.replace('.', File.separatorChar)
@@ -321,6 +715,38 @@ public class PasteClassHandler {
         return f.exists() ? f : null;
     }
 
+    // A class can exist in several places (module copies, vendored code, test
+    // fixtures); the file in the bundle, or a sibling of a loaded class, wins
+    private File findLoadedFile(String packageName, String className) {
+        String pkgPath = packageName != null
+                ? File.separator + packageName.replace('.', File.separatorChar)
+                : "";
+        String fileName = className + ".java";
+        Collection<File> files = repo.snapshot().getClassFileMap().values();
+
+        for (File file : files) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (file.getName().equals(fileName) && parent != null
+                    && parent.getPath().endsWith(pkgPath)) {
+                return file;
+            }
+        }
+        if (pkgPath.isEmpty()) return null;
+        for (File file : files) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent == null || !parent.getPath().endsWith(pkgPath)) continue;
+            File sibling = new File(parent, fileName);
+            if (sibling.isFile()) return sibling;
+        }
+        return null;
+    }
+
+    private String qualifiedName(String packageName, String className) {
+        return packageName != null && !packageName.isEmpty()
+                ? packageName + "." + className
+                : className;
+    }
+
     // --- File creation ---
     private File createClassFile(
             String packageName,
@@ -336,7 +762,7 @@ public class PasteClassHandler {
         if (!dir.exists()) dir.mkdirs();
 
         File file = new File(dir, className + ".java");
-        Files.writeString(file.toPath(), code);
+        repo.getFileCache().write(file, code);
         return file;
     }
 }
@@ -0,0 +1,376 @@
+package wv.codeclip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses and applies the two patch formats LLMs usually emit instead of
+ * whole files: unified diffs, and SEARCH/REPLACE blocks
+ *
+ * <pre>
+ * path/to/Foo.java
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; SEARCH
+ * old lines
+ * =======
+ * new lines
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt; REPLACE
+ * </pre>
+ *
+ * Hunks are matched fuzzily, since generated diffs often have wrong line
+ * numbers and counts or re-indented context: first exactly at the stated
+ * position, then at the nearest position, then ignoring surrounding
+ * whitespace, then with up to two context lines dropped at either end.
+ * Pure text logic; the caller resolves files and writes the results.
+ */
+public final class PatchApplier {
+
+    private PatchApplier() {}
+
+    private static final int MAX_FUZZ = 2;
+
+    public static class PatchException extends Exception {
+        public PatchException(String message) {
+            super(message);
+        }
+    }
+
+    /** Changes for one file; {@code name} is the path as written in the patch, or null. */
+    public static final class FilePatch {
+        private final String name;
+        private final List<Hunk> hunks = new ArrayList<>();
+
+        FilePatch(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getHunkCount() {
+            return hunks.size();
+        }
+
+        /** Text the file must contain, for locating patches without a name. */
+        public String getFirstSearchText() {
+            return hunks.isEmpty() ? "" : String.join("\n", hunks.get(0).oldLines());
+        }
+    }
+
+    // Each line is prefixed with its op: ' ' context, '-' removed, '+' added.
+    // oldStart is 0-based, or -1 when unknown (SEARCH/REPLACE, bare "@@").
+    private record Hunk(int oldStart, List<String> lines) {
+        List<String> oldLines() {
+            List<String> out = new ArrayList<>();
+            for (String l : lines) if (l.charAt(0) != '+') out.add(l.substring(1));
+            return out;
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Detection & parsing
+    // ------------------------------------------------------------------
+
+    public static boolean looksLikePatch(String text) {
+        if (text.contains("<<<<<<< SEARCH") && text.contains(">>>>>>> REPLACE")) return true;
+        boolean header = false;
+        for (String line : text.split("\n")) {
+            if (line.startsWith("+++ ") || line.startsWith("--- ")) header = true;
+            if (header && line.startsWith("@@")) return true;
+        }
+        return false;
+    }
+
+    public static List<FilePatch> parse(String text) throws PatchException {
+        String[] lines = text.replace("\r\n", "\n").split("\n", -1);
+        return text.contains("<<<<<<< SEARCH") ? parseSearchReplace(lines) : parseUnified(lines);
+    }
+
+    private static List<FilePatch> parseUnified(String[] lines) throws PatchException {
+        List<FilePatch> patches = new ArrayList<>();
+        FilePatch current = null;
+        int i = 0;
+
+        while (i < lines.length) {
+            String line = lines[i];
+
+            if (line.startsWith("--- ") && i + 1 < lines.length && lines[i + 1].startsWith("+++ ")) {
+                String from = fileName(line.substring(4));
+                String to = fileName(lines[i + 1].substring(4));
+                if (to.equals("/dev/null")) throw new PatchException("Deleting files is not supported: " + from);
+                if (from.equals("/dev/null")) throw new PatchException("Creating files is not supported: " + to
+                        + "\nPaste the new class as a whole instead.");
+                current = new FilePatch(to);
+                patches.add(current);
+                i += 2;
+                continue;
+            }
+
+            if (line.startsWith("@@")) {
+                if (current == null) throw new PatchException("Hunk without a file header: " + line);
+                int oldStart = parseOldStart(line);
+                List<String> body = new ArrayList<>();
+                i++;
+                while (i < lines.length) {
+                    String l = lines[i];
+                    if (l.startsWith("@@") || l.startsWith("diff ")
+                            || (l.startsWith("--- ") && i + 1 < lines.length && lines[i + 1].startsWith("+++ "))) {
+                        break;
+                    }
+                    if (l.startsWith("\\")) {          // "\ No newline at end of file"
+                        i++;
+                        continue;
+                    }
+                    if (l.isEmpty()) {
+                        body.add(" ");                 // blank context line, stripped by some tools
+                    } else if (l.charAt(0) == ' ' || l.charAt(0) == '-' || l.charAt(0) == '+') {
+                        body.add(l);
+                    } else {
+                        break;                         // prose after the diff
+                    }
+                    i++;
+                }
+                // Trailing blank lines are more likely separators than context
+                while (!body.isEmpty() && body.get(body.size() - 1).equals(" ")) {
+                    body.remove(body.size() - 1);
+                }
+                current.hunks.add(new Hunk(oldStart, body));
+                continue;
+            }
+            i++;
+        }
+
+        patches.removeIf(p -> p.hunks.isEmpty());
+        if (patches.isEmpty()) throw new PatchException("No hunks found in the diff.");
+        return patches;
+    }
+
+    private static List<FilePatch> parseSearchReplace(String[] lines) throws PatchException {
+        List<FilePatch> patches = new ArrayList<>();
+        String lastName = null;
+        String candidate = null;
+        int i = 0;
+
+        while (i < lines.length) {
+            String line = lines[i];
+            String trimmed = line.trim();
+
+            if (trimmed.equals("<<<<<<< SEARCH")) {
+                String name = candidate != null ? candidate : lastName;
+                List<String> search = new ArrayList<>();
+                List<String> replace = new ArrayList<>();
+                i++;
+                while (i < lines.length && !lines[i].trim().equals("=======")) search.add(lines[i++]);
+                i++;
+                while (i < lines.length && !lines[i].trim().startsWith(">>>>>>> REPLACE")) replace.add(lines[i++]);
+                if (i >= lines.length) throw new PatchException("Unterminated SEARCH/REPLACE block");
+                i++;
+
+                if (search.isEmpty() || String.join("", search).isBlank()) {
+                    throw new PatchException("Empty SEARCH block" + (name != null ? " for " + name : "")
+                            + ": creating files is not supported.");
+                }
+
+                List<String> body = new ArrayList<>();
+                for (String s : search) body.add("-" + s);
+                for (String r : replace) body.add("+" + r);
+
+                FilePatch patch = !patches.isEmpty() && sameName(patches.get(patches.size() - 1).name, name)
+                        ? patches.get(patches.size() - 1)
+                        : null;
+                if (patch == null) {
+                    patch = new FilePatch(name);
+                    patches.add(patch);
+                }
+                patch.hunks.add(new Hunk(-1, body));
+                lastName = name;
+                candidate = null;
+                continue;
+            }
+
+            // A file name line precedes the block, possibly with a fence in between
+            if (!trimmed.isEmpty() && !trimmed.startsWith("```")) {
+                candidate = looksLikePath(trimmed) ? fileName(trimmed) : null;
+            }
+            i++;
+        }
+
+        if (patches.isEmpty()) throw new PatchException("No SEARCH/REPLACE blocks found.");
+        return patches;
+    }
+
+    private static boolean sameName(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static boolean looksLikePath(String s) {
+        return !s.contains(" ") && s.matches(".*\\.[A-Za-z0-9]+");
+    }
+
+    private static String fileName(String raw) {
+        String name = raw.trim();
+        int tab = name.indexOf('\t');
+        if (tab >= 0) name = name.substring(0, tab);
+        if (name.startsWith("a/") || name.startsWith("b/")) name = name.substring(2);
+        name = name.replace('\\', '/');
+        while (name.startsWith("`") || name.startsWith("*")) name = name.substring(1);
+        while (name.endsWith("`") || name.endsWith("*") || name.endsWith(":")) name = name.substring(0, name.length() - 1);
+        return name;
+    }
+
+    private static int parseOldStart(String header) {
+        // "@@ -12,7 +12,8 @@", "@@ -12 +12 @@" or a bare "@@ ... @@"
+        int minus = header.indexOf('-');
+        if (minus < 0) return -1;
+        int end = minus + 1;
+        while (end < header.length() && Character.isDigit(header.charAt(end))) end++;
+        if (end == minus + 1) return -1;
+        return Math.max(0, Integer.parseInt(header.substring(minus + 1, end)) - 1);
+    }
+
+    // ------------------------------------------------------------------
+    // Applying
+    // ------------------------------------------------------------------
+
+    /**
+     * Applies every hunk of {@code patch} to {@code original}, keeping its
+     * line separator and final newline.
+     *
+     * @param notes receives a line for each hunk that needed fuzz
+     */
+    public static String apply(String original, FilePatch patch, List<String> notes) throws PatchException {
+        String separator = original.contains("\r\n") ? "\r\n" : "\n";
+        boolean finalNewline = original.endsWith("\n");
+
+        List<String> file = new ArrayList<>();
+        for (String l : original.split("\n", -1)) {
+            file.add(l.endsWith("\r") ? l.substring(0, l.length() - 1) : l);
+        }
+        if (finalNewline) file.remove(file.size() - 1);
+
+        int drift = 0;
+        int minIndex = 0;
+        for (int h = 0; h < patch.hunks.size(); h++) {
+            Hunk hunk = patch.hunks.get(h);
+            // SEARCH/REPLACE blocks carry no position and may come in any order
+            boolean positioned = hunk.oldStart >= 0;
+            int from = positioned ? minIndex : 0;
+            int expected = positioned ? Math.max(minIndex, hunk.oldStart + drift) : 0;
+
+            Match m = locate(file, hunk, expected, from, !positioned);
+            if (m == null) {
+                throw new PatchException("Hunk " + (h + 1) + " of " + patch.hunks.size()
+                        + " does not match " + (patch.name != null ? patch.name : "the file") + ":\n"
+                        + preview(hunk.oldLines()));
+            }
+            if (m.fuzz > 0 || !m.exact || (hunk.oldStart >= 0 && m.index != expected)) {
+                notes.add((patch.name != null ? patch.name : "file") + ": hunk " + (h + 1)
+                        + (hunk.oldStart >= 0 && m.index != expected
+                            ? " applied at line " + (m.index + 1) + " instead of " + (expected + 1) : "")
+                        + (!m.exact ? ", whitespace ignored" : "")
+                        + (m.fuzz > 0 ? ", fuzz " + m.fuzz : ""));
+            }
+
+            List<String> replacement = new ArrayList<>();
+            int at = m.index;
+            for (String l : m.lines) {
+                switch (l.charAt(0)) {
+                    case ' ' -> replacement.add(file.get(at++));   // keep the file's own indentation
+                    case '-' -> at++;
+                    default -> replacement.add(l.substring(1));
+                }
+            }
+            int removed = at - m.index;
+            file.subList(m.index, at).clear();
+            file.addAll(m.index, replacement);
+
+            if (hunk.oldStart >= 0) drift = m.index - (hunk.oldStart + m.fuzzTop);
+            minIndex = m.index + replacement.size();
+            if (removed == 0 && replacement.isEmpty()) minIndex = m.index;
+        }
+
+        return String.join(separator, file) + (finalNewline ? separator : "");
+    }
+
+    private record Match(int index, List<String> lines, int fuzz, int fuzzTop, boolean exact) {}
+
+    private static Match locate(List<String> file, Hunk hunk, int expected, int minIndex, boolean unique)
+            throws PatchException {
+        for (int fuzz = 0; fuzz <= MAX_FUZZ; fuzz++) {
+            for (int top = 0; top <= fuzz; top++) {
+                List<String> lines = trimContext(hunk.lines, top, fuzz - top);
+                if (lines == null) continue;
+                List<String> old = new ArrayList<>();
+                for (String l : lines) if (l.charAt(0) != '+') old.add(l.substring(1));
+                if (old.isEmpty()) {
+                    if (fuzz > 0) continue;
+                    return new Match(Math.min(expected, file.size()), lines, 0, 0, true);
+                }
+
+                for (boolean exact : new boolean[]{true, false}) {
+                    int index = nearest(file, old, expected + top, minIndex, exact, unique);
+                    if (index >= 0) return new Match(index, lines, fuzz, top, exact);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Drops leading/trailing context lines; null if there are not enough
+    private static List<String> trimContext(List<String> lines, int top, int bottom) {
+        int from = 0;
+        int to = lines.size();
+        for (int i = 0; i < top; i++) {
+            if (from >= to || lines.get(from).charAt(0) != ' ') return null;
+            from++;
+        }
+        for (int i = 0; i < bottom; i++) {
+            if (to <= from || lines.get(to - 1).charAt(0) != ' ') return null;
+            to--;
+        }
+        return lines.subList(from, to);
+    }
+
+    private static int nearest(List<String> file, List<String> old, int expected, int minIndex,
+                               boolean exact, boolean unique) throws PatchException {
+        int last = file.size() - old.size();
+        if (last < minIndex) return -1;
+        expected = Math.max(minIndex, Math.min(expected, last));
+
+        if (unique) {
+            // No position to go by: the text must occur exactly once
+            int found = -1;
+            for (int i = minIndex; i <= last; i++) {
+                if (matchesAt(file, old, i, exact)) {
+                    if (found >= 0) {
+                        throw new PatchException("Search text occurs more than once:\n" + preview(old));
+                    }
+                    found = i;
+                }
+            }
+            return found;
+        }
+
+        for (int d = 0; expected - d >= minIndex || expected + d <= last; d++) {
+            if (expected + d <= last && matchesAt(file, old, expected + d, exact)) return expected + d;
+            if (d > 0 && expected - d >= minIndex && matchesAt(file, old, expected - d, exact)) return expected - d;
+        }
+        return -1;
+    }
+
+    private static boolean matchesAt(List<String> file, List<String> old, int at, boolean exact) {
+        for (int i = 0; i < old.size(); i++) {
+            String a = file.get(at + i);
+            String b = old.get(i);
+            if (exact ? !a.equals(b) : !a.strip().equals(b.strip())) return false;
+        }
+        return true;
+    }
+
+    private static String preview(List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(6, lines.size()); i++) sb.append("    ").append(lines.get(i)).append('\n');
+        if (lines.size() > 6) sb.append("    ...\n");
+        return sb.toString();
+    }
+}
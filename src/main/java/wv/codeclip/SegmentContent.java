@@ -0,0 +1,285 @@
+package wv.codeclip;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Document content stored as pieces that reference the inserted strings
+ * (the repository's per-class segments) instead of copying them.
+ * Inserting or removing a class only touches that class's pieces.
+ *
+ * Pieces are kept in a randomized balanced tree ordered by position, with
+ * each node holding the length of its subtree, so locating an offset,
+ * splitting a piece and inserting or removing a run of pieces all cost
+ * O(log pieces). Only the characters a view actually asks for are copied
+ * into the {@link Segment} it passes in.
+ */
+class SegmentContent implements AbstractDocument.Content {
+
+    // Like GapContent, the content always ends with an implied newline
+    private Node root = new Node("\n", 0, 1);
+
+    // Sorted by offset. Inserts and removes never change the relative
+    // order of marks, so the list stays sorted without re-sorting.
+    private final List<Mark> marks = new ArrayList<>();
+    private final ReferenceQueue<Pos> collected = new ReferenceQueue<>();
+    private int collectedCount;
+
+    // --- Content ---
+    @Override
+    public int length() {
+        return root.total;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (str.isEmpty()) return null;
+        return insert(where, List.of(str), str.length());
+    }
+
+    /**
+     * Inserts {@code parts}, {@code length} characters in all, as one edit
+     * without concatenating them.
+     */
+    UndoableEdit insert(int where, List<? extends CharSequence> parts, int length) throws BadLocationException {
+        if (where < 0 || where >= length()) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        if (length == 0) return null;
+
+        Node inserted = null;
+        for (CharSequence part : parts) {
+            if (part.length() > 0) inserted = merge(inserted, new Node(part, 0, part.length()));
+        }
+        Node[] split = split(root, where);
+        root = merge(merge(split[0], inserted), split[1]);
+        updateMarksForInsert(where, length);
+        return null;
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || where + nitems >= length()) {
+            throw new BadLocationException("Invalid remove", where + nitems);
+        }
+        if (nitems == 0) return null;
+
+        Node[] head = split(root, where);
+        Node[] tail = split(head[1], nitems);
+        root = merge(head[0], tail[1]);
+        updateMarksForRemove(where, nitems);
+        return null;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        StringBuilder sb = new StringBuilder(len);
+        appendRange(root, where, where + len, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        checkRange(where, len);
+
+        // A partial return may stop at the end of the piece holding where
+        if (txt.isPartialReturn()) {
+            Node n = root;
+            int offset = where;
+            while (true) {
+                int left = size(n.left);
+                if (offset < left) {
+                    n = n.left;
+                } else if (offset < left + n.length) {
+                    offset -= left;
+                    break;
+                } else {
+                    offset -= left + n.length;
+                    n = n.right;
+                }
+            }
+            len = Math.min(len, n.length - offset);
+        }
+
+        // Not reusing txt.array: it may be shared with another segment
+        char[] out = new char[len];
+        copyRange(root, where, where + len, out, 0);
+        txt.array = out;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        purgeCollected();
+        Pos pos = new Pos();
+        Mark mark = new Mark(pos, offset, collected);
+        pos.mark = mark;
+        marks.add(lowerBound(offset + 1), mark);
+        return pos;
+    }
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) {
+            throw new BadLocationException("Invalid location", where + len);
+        }
+    }
+
+    // --- Pieces ---
+    private static final class Node {
+        final CharSequence text;
+        final int start;
+        final int length;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        Node left;
+        Node right;
+        int total;
+
+        Node(CharSequence text, int start, int length) {
+            this.text = text;
+            this.start = start;
+            this.length = length;
+            this.total = length;
+        }
+
+        Node update() {
+            total = size(left) + length + size(right);
+            return this;
+        }
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.total;
+    }
+
+    /** Splits {@code n} into the first {@code offset} characters and the rest, cutting a piece if needed. */
+    private static Node[] split(Node n, int offset) {
+        if (n == null) return new Node[2];
+        int left = size(n.left);
+        if (offset <= left) {
+            Node[] parts = split(n.left, offset);
+            n.left = parts[1];
+            return new Node[]{parts[0], n.update()};
+        }
+        if (offset >= left + n.length) {
+            Node[] parts = split(n.right, offset - left - n.length);
+            n.right = parts[0];
+            return new Node[]{n.update(), parts[1]};
+        }
+
+        // Inside this piece: both halves keep referencing the same text
+        int cut = offset - left;
+        Node head = new Node(n.text, n.start, cut);
+        Node tail = new Node(n.text, n.start + cut, n.length - cut);
+        return new Node[]{merge(n.left, head), merge(tail, n.right)};
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return a.update();
+        }
+        b.left = merge(a, b.left);
+        return b.update();
+    }
+
+    private static void appendRange(Node n, int from, int to, StringBuilder sb) {
+        if (n == null || from >= to) return;
+        int left = size(n.left);
+        if (from < left) appendRange(n.left, from, Math.min(to, left), sb);
+        int s = Math.max(from, left);
+        int e = Math.min(to, left + n.length);
+        if (s < e) sb.append(n.text, n.start + s - left, n.start + e - left);
+        if (to > left + n.length) {
+            appendRange(n.right, Math.max(0, from - left - n.length), to - left - n.length, sb);
+        }
+    }
+
+    private static int copyRange(Node n, int from, int to, char[] out, int pos) {
+        if (n == null || from >= to) return pos;
+        int left = size(n.left);
+        if (from < left) pos = copyRange(n.left, from, Math.min(to, left), out, pos);
+        int s = Math.max(from, left);
+        int e = Math.min(to, left + n.length);
+        if (s < e) {
+            int begin = n.start + s - left;
+            int end = n.start + e - left;
+            if (n.text instanceof String str) {
+                str.getChars(begin, end, out, pos);
+            } else {
+                for (int i = begin; i < end; i++) out[pos + i - begin] = n.text.charAt(i);
+            }
+            pos += e - s;
+        }
+        if (to > left + n.length) {
+            pos = copyRange(n.right, Math.max(0, from - left - n.length), to - left - n.length, out, pos);
+        }
+        return pos;
+    }
+
+    // --- Marks (same semantics as StringContent) ---
+    private int lowerBound(int offset) {
+        int lo = 0, hi = marks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (marks.get(mid).offset < offset) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private void updateMarksForInsert(int offset, int len) {
+        // zero is a special case where only marks after it move
+        if (offset == 0) offset = 1;
+        for (int i = lowerBound(offset); i < marks.size(); i++) {
+            marks.get(i).offset += len;
+        }
+    }
+
+    private void updateMarksForRemove(int offset, int len) {
+        int end = offset + len;
+        for (int i = lowerBound(offset); i < marks.size(); i++) {
+            Mark m = marks.get(i);
+            m.offset = m.offset >= end ? m.offset - len : offset;
+        }
+    }
+
+    private void purgeCollected() {
+        while (collected.poll() != null) collectedCount++;
+        if (collectedCount > 256 && collectedCount > marks.size() / 4) {
+            marks.removeIf(m -> m.get() == null);
+            collectedCount = 0;
+        }
+    }
+
+    private static final class Mark extends WeakReference<Pos> {
+        int offset;
+
+        Mark(Pos pos, int offset, ReferenceQueue<Pos> queue) {
+            super(pos, queue);
+            this.offset = offset;
+        }
+    }
+
+    private static final class Pos implements Position {
+        Mark mark;
+
+        @Override
+        public int getOffset() {
+            return mark.offset;
+        }
+    }
+}
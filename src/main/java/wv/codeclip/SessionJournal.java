@@ -0,0 +1,395 @@
+package wv.codeclip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Append-only journal of notes edits, class list changes, disabled and
+ * pinned classes and member selections made since the last clean shutdown,
+ * so a crash or kill does not lose the session.
+ *
+ * The EDT only queues records. A background thread appends them to
+ * ~/codeclip.journal and fsyncs on a short debounce, keeps a replayed copy
+ * of the state and rewrites the journal as a compact snapshot once it grows.
+ * On a clean exit the state is in codeclip.properties and the journal is
+ * deleted, unless the properties could not be written; if one is found at
+ * startup it is replayed on top of the properties.
+ */
+public class SessionJournal {
+
+    private static final long FLUSH_DELAY_MS = 400;
+    private static final long COMPACT_THRESHOLD = 512 * 1024;
+
+    private final File journalFile =
+            new File(System.getProperty("user.home"), "codeclip.journal");
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "codeclip-journal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ConcurrentLinkedQueue<Record> pending = new ConcurrentLinkedQueue<>();
+    private final Object flushLock = new Object();
+    private boolean flushScheduled;
+    private volatile boolean closed;
+
+    // EDT side: state already journaled, to skip redundant records
+    private final Set<String> known = new HashSet<>();
+    private final Set<String> knownDisabled = new HashSet<>();
+    private final Set<String> knownPinned = new HashSet<>();
+    private final Map<String, Set<String>> knownMembers = new HashMap<>();
+
+    // Writer side: state as replayed from the journal, used for compaction
+    private final StringBuilder notes = new StringBuilder();
+    private final LinkedHashSet<String> classes = new LinkedHashSet<>();
+    private final Set<String> disabled = new HashSet<>();
+    private final Set<String> pinned = new HashSet<>();
+    private final Map<String, Set<String>> members = new HashMap<>();
+    private FileChannel channel;
+
+    public record State(String notes, List<String> classes, Set<String> disabled, Set<String> pinned,
+                        Map<String, Set<String>> members, boolean recovered) {}
+
+    // ------------------------------------------------------------------
+    // Recovery
+    // ------------------------------------------------------------------
+
+    /**
+     * Replays a left-over journal on top of the persisted state.
+     * Called once at startup, before any record is queued.
+     */
+    public State recover(String savedNotes, String[] savedClasses, String[] savedDisabled,
+                         String[] savedPinned, Map<String, Set<String>> savedMembers) {
+        notes.setLength(0);
+        notes.append(savedNotes);
+        classes.clear();
+        classes.addAll(Arrays.asList(savedClasses));
+        disabled.clear();
+        disabled.addAll(Arrays.asList(savedDisabled));
+        pinned.clear();
+        pinned.addAll(Arrays.asList(savedPinned));
+        members.clear();
+        members.putAll(savedMembers);
+
+        boolean recovered = false;
+        if (journalFile.isFile()) {
+            try {
+                String text = Files.readString(journalFile.toPath(), StandardCharsets.UTF_8);
+                // Anything after the last newline is a record cut off by the crash
+                int end = text.lastIndexOf('\n');
+                for (String line : text.substring(0, end + 1).split("\n")) {
+                    Record rec = Record.decode(line);
+                    if (rec != null) {
+                        apply(rec);
+                        recovered = true;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        known.addAll(classes);
+        knownDisabled.addAll(disabled);
+        knownPinned.addAll(pinned);
+        knownMembers.putAll(members);
+        State state = new State(notes.toString(), new ArrayList<>(classes), new HashSet<>(disabled),
+                new HashSet<>(pinned), new HashMap<>(members), recovered);
+
+        // Start from a compact journal describing the recovered state
+        writer.execute(this::compact);
+        return state;
+    }
+
+    // ------------------------------------------------------------------
+    // Recording (EDT)
+    // ------------------------------------------------------------------
+
+    public void notesInserted(int offset, String text) {
+        enqueue(new Record('I', offset, 0, text));
+    }
+
+    public void notesRemoved(int offset, int length) {
+        enqueue(new Record('R', offset, length, null));
+    }
+
+    public void notesReplaced(String text) {
+        enqueue(new Record('N', 0, 0, text));
+    }
+
+    /** Journals any of {@code paths} not journaled yet. */
+    public void classesAdded(Collection<String> paths) {
+        for (String path : paths) {
+            if (known.add(path)) enqueue(new Record('A', 0, 0, path));
+        }
+    }
+
+    public void classRemoved(String path) {
+        knownDisabled.remove(path);
+        knownPinned.remove(path);
+        knownMembers.remove(path);
+        if (known.remove(path)) enqueue(new Record('D', 0, 0, path));
+    }
+
+    public void disabledChanged(String path, boolean value) {
+        if (value ? knownDisabled.add(path) : knownDisabled.remove(path)) {
+            enqueue(new Record(value ? 'X' : 'E', 0, 0, path));
+        }
+    }
+
+    public void pinnedChanged(String path, boolean value) {
+        if (value ? knownPinned.add(path) : knownPinned.remove(path)) {
+            enqueue(new Record(value ? 'P' : 'U', 0, 0, path));
+        }
+    }
+
+    /**
+     * @param signatures the selected members of {@code path}, or null for
+     *                   the whole class
+     */
+    public void membersChanged(String path, Set<String> signatures) {
+        if (Objects.equals(knownMembers.get(path), signatures)) return;
+        if (signatures == null) {
+            knownMembers.remove(path);
+            enqueue(new Record('W', 0, 0, path));
+        } else {
+            knownMembers.put(path, signatures);
+            enqueue(membersRecord(path, signatures));
+        }
+    }
+
+    /** Clean shutdown: the state is persisted elsewhere, drop the journal. */
+    public void discard() {
+        closed = true;
+        writer.shutdownNow();
+        awaitWriter();
+        closeChannel();
+        journalFile.delete();
+    }
+
+    /**
+     * Shutdown when the state could not be persisted: writes what is still
+     * queued and keeps the journal for the next start to replay.
+     */
+    public void close() {
+        closed = true;
+        writer.execute(this::flush);
+        writer.shutdown();
+        awaitWriter();
+        closeChannel();
+    }
+
+    private void awaitWriter() {
+        try {
+            writer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(Record rec) {
+        if (closed) return;
+        pending.add(rec);
+        synchronized (flushLock) {
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        writer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // ------------------------------------------------------------------
+    // Writer thread
+    // ------------------------------------------------------------------
+
+    private void flush() {
+        synchronized (flushLock) {
+            flushScheduled = false;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        Record rec;
+        while ((rec = pending.poll()) != null) {
+            apply(rec);
+            sb.append(rec.encode()).append('\n');
+        }
+        if (sb.length() == 0) return;
+
+        try {
+            write(sb.toString());
+            if (channel.size() > COMPACT_THRESHOLD) compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(String text) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(journalFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) channel.write(buf);
+        channel.force(false);
+    }
+
+    private void compact() {
+        if (closed) return;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(new Record('N', 0, 0, notes.toString()).encode()).append('\n');
+        for (String path : classes) {
+            sb.append(new Record('A', 0, 0, path).encode()).append('\n');
+        }
+        for (String path : disabled) {
+            sb.append(new Record('X', 0, 0, path).encode()).append('\n');
+        }
+        for (String path : pinned) {
+            sb.append(new Record('P', 0, 0, path).encode()).append('\n');
+        }
+        members.forEach((path, signatures) ->
+                sb.append(membersRecord(path, signatures).encode()).append('\n'));
+
+        File tmp = new File(journalFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) out.write(buf);
+            out.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        closeChannel();
+        try {
+            Files.move(tmp.toPath(), journalFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        channel = null;
+    }
+
+    private void apply(Record rec) {
+        switch (rec.type) {
+            case 'N' -> {
+                notes.setLength(0);
+                notes.append(rec.text);
+            }
+            case 'I' -> notes.insert(clamp(rec.offset, notes.length()), rec.text);
+            case 'R' -> {
+                int from = clamp(rec.offset, notes.length());
+                notes.delete(from, clamp(from + rec.length, notes.length()));
+            }
+            case 'A' -> classes.add(rec.text);
+            case 'D' -> {
+                classes.remove(rec.text);
+                disabled.remove(rec.text);
+                pinned.remove(rec.text);
+                members.remove(rec.text);
+            }
+            case 'X' -> disabled.add(rec.text);
+            case 'E' -> disabled.remove(rec.text);
+            case 'P' -> pinned.add(rec.text);
+            case 'U' -> pinned.remove(rec.text);
+            case 'M' -> {
+                String[] parts = rec.text.split("\t", -1);
+                members.put(parts[0], new LinkedHashSet<>(Arrays.asList(parts).subList(1, parts.length)));
+            }
+            case 'W' -> members.remove(rec.text);
+            default -> { }
+        }
+    }
+
+    // Path, then the member signatures, tab-separated (escaped when encoded)
+    private static Record membersRecord(String path, Set<String> signatures) {
+        StringBuilder text = new StringBuilder(path);
+        for (String s : signatures) text.append('\t').append(s);
+        return new Record('M', 0, 0, text.toString());
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    // ------------------------------------------------------------------
+    // Record format: one line per record, tab separated, text escaped
+    // ------------------------------------------------------------------
+
+    private record Record(char type, int offset, int length, String text) {
+
+        String encode() {
+            return switch (type) {
+                case 'I' -> "I\t" + offset + "\t" + escape(text);
+                case 'R' -> "R\t" + offset + "\t" + length;
+                default -> type + "\t" + escape(text);
+            };
+        }
+
+        static Record decode(String line) {
+            try {
+                String[] parts = line.split("\t", -1);
+                char type = parts[0].isEmpty() ? '?' : parts[0].charAt(0);
+                return switch (type) {
+                    case 'I' -> new Record('I', Integer.parseInt(parts[1]), 0, unescape(parts[2]));
+                    case 'R' -> new Record('R', Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), null);
+                    case 'N', 'A', 'D', 'X', 'E', 'P', 'U', 'M', 'W' -> new Record(type, 0, 0, unescape(parts[1]));
+                    default -> null;
+                };
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        private static String escape(String s) {
+            StringBuilder sb = new StringBuilder(s.length() + 16);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+
+        private static String unescape(String s) {
+            StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c != '\\' || i + 1 == s.length()) {
+                    sb.append(c);
+                    continue;
+                }
+                char n = s.charAt(++i);
+                sb.append(switch (n) {
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    case 't' -> '\t';
+                    default -> n;
+                });
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -2,7 +2,10 @@ package wv.codeclip;
 
 import java.awt.*;
 import java.io.*;
-import java.util.Properties;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SettingsManager {
 
@@ -10,6 +13,13 @@ public class SettingsManager {
             new File(System.getProperty("user.home"), "codeclip.properties");
     private final Properties props = new Properties();
 
+    private final AtomicBoolean saveQueued = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "codeclip-settings");
+        t.setDaemon(true);
+        return t;
+    });
+
     public SettingsManager() {
         loadProperties();
     }
@@ -24,14 +34,30 @@ public class SettingsManager {
         }
     }
 
-    public void saveProperties() {
+    /** @return false if the file could not be written */
+    public synchronized boolean saveProperties() {
         try (FileWriter writer = new FileWriter(propFile)) {
             props.store(writer, "CodeClip Settings");
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
     }
 
+    /**
+     * Writes the properties on a background thread. Saves requested before
+     * a queued one starts are merged into it, since it stores whatever the
+     * properties hold by then.
+     */
+    public void savePropertiesLater() {
+        if (!saveQueued.compareAndSet(false, true)) return;
+        writer.execute(() -> {
+            saveQueued.set(false);
+            saveProperties();
+        });
+    }
+
     public void saveFrameBounds(Rectangle bounds) {
         props.setProperty("frame.x", String.valueOf(bounds.x));
         props.setProperty("frame.y", String.valueOf(bounds.y));
@@ -63,4 +89,161 @@ public class SettingsManager {
         String files = props.getProperty("classes", "");
         return files.isEmpty() ? new String[0] : files.split("\\|");
     }
+
+    public void saveDisabledPaths(String[] paths) {
+        props.setProperty("disabled", String.join("|", paths));
+    }
+
+    public String[] loadDisabledPaths() {
+        return splitPaths(props.getProperty("disabled", ""));
+    }
+
+    public void savePinnedPaths(String[] paths) {
+        props.setProperty("pinned", String.join("|", paths));
+    }
+
+    public String[] loadPinnedPaths() {
+        return splitPaths(props.getProperty("pinned", ""));
+    }
+
+    // --- Workspaces (the active one is stored in classes / disabled / pinned / notes) ---
+    public void saveWorkspaceNames(String[] names, String active) {
+        props.setProperty("workspaces", String.join("|", names));
+        props.setProperty("workspace.active", active);
+    }
+
+    public String[] loadWorkspaceNames() {
+        return splitPaths(props.getProperty("workspaces", ""));
+    }
+
+    public String loadActiveWorkspace() {
+        return props.getProperty("workspace.active", WorkspaceManager.DEFAULT);
+    }
+
+    public void saveWorkspace(String name, String[] classes, String[] disabled, String[] pinned,
+                              String notes, Map<String, Set<String>> members) {
+        props.setProperty("workspace." + name + ".classes", String.join("|", classes));
+        props.setProperty("workspace." + name + ".disabled", String.join("|", disabled));
+        props.setProperty("workspace." + name + ".pinned", String.join("|", pinned));
+        props.setProperty("workspace." + name + ".notes", notes);
+        props.setProperty("workspace." + name + ".members", encodeSelections(members));
+    }
+
+    public String[] loadWorkspaceClasses(String name) {
+        return splitPaths(props.getProperty("workspace." + name + ".classes", ""));
+    }
+
+    public String[] loadWorkspaceDisabled(String name) {
+        return splitPaths(props.getProperty("workspace." + name + ".disabled", ""));
+    }
+
+    public String[] loadWorkspacePinned(String name) {
+        return splitPaths(props.getProperty("workspace." + name + ".pinned", ""));
+    }
+
+    public String loadWorkspaceNotes(String name) {
+        return props.getProperty("workspace." + name + ".notes", "");
+    }
+
+    public Map<String, Set<String>> loadWorkspaceMembers(String name) {
+        return decodeSelections(props.getProperty("workspace." + name + ".members", ""));
+    }
+
+    public void removeWorkspace(String name) {
+        props.remove("workspace." + name + ".classes");
+        props.remove("workspace." + name + ".disabled");
+        props.remove("workspace." + name + ".pinned");
+        props.remove("workspace." + name + ".notes");
+        props.remove("workspace." + name + ".members");
+    }
+
+    private String[] splitPaths(String value) {
+        return value.isEmpty() ? new String[0] : value.split("\\|");
+    }
+
+    public long loadMaxFileBytes() {
+        return Long.parseLong(props.getProperty(
+                "read.maxBytes", String.valueOf(SourceFileReader.DEFAULT_MAX_BYTES)));
+    }
+
+    public void saveGitBaseRef(String ref) {
+        props.setProperty("git.base", ref);
+    }
+
+    public String loadGitBaseRef() {
+        return props.getProperty("git.base", "HEAD");
+    }
+
+    public void saveServerEnabled(boolean enabled) {
+        props.setProperty("server.enabled", String.valueOf(enabled));
+    }
+
+    public boolean loadServerEnabled() {
+        return Boolean.parseBoolean(props.getProperty("server.enabled", "false"));
+    }
+
+    public int loadServerPort() {
+        return Integer.parseInt(props.getProperty("server.port", "8765"));
+    }
+
+    public void saveClipboardWatch(boolean enabled) {
+        props.setProperty("clipboard.watch", String.valueOf(enabled));
+    }
+
+    public boolean loadClipboardWatch() {
+        return Boolean.parseBoolean(props.getProperty("clipboard.watch", "false"));
+    }
+
+    public void saveCompileCheck(boolean enabled) {
+        props.setProperty("compile.check", String.valueOf(enabled));
+    }
+
+    public boolean loadCompileCheck() {
+        return Boolean.parseBoolean(props.getProperty("compile.check", "false"));
+    }
+
+    public String loadCompileClasspath() {
+        return props.getProperty("compile.classpath", "");
+    }
+
+    public boolean loadSingleInstance() {
+        return Boolean.parseBoolean(props.getProperty("single.instance", "true"));
+    }
+
+    public void saveMemberSelections(Map<String, Set<String>> selections) {
+        props.setProperty("members", encodeSelections(selections));
+    }
+
+    public Map<String, Set<String>> loadMemberSelections() {
+        return decodeSelections(props.getProperty("members", ""));
+    }
+
+    /** One line per partly included class: path, then its member signatures, tab-separated. */
+    private static String encodeSelections(Map<String, Set<String>> selections) {
+        StringBuilder sb = new StringBuilder();
+        selections.forEach((path, signatures) -> {
+            sb.append(path);
+            for (String s : signatures) sb.append('\t').append(s);
+            sb.append('\n');
+        });
+        return sb.toString();
+    }
+
+    private static Map<String, Set<String>> decodeSelections(String value) {
+        Map<String, Set<String>> selections = new HashMap<>();
+        for (String line : value.split("\n")) {
+            if (line.isBlank()) continue;
+            String[] parts = line.split("\t");
+            selections.put(parts[0], new LinkedHashSet<>(Arrays.asList(parts).subList(1, parts.length)));
+        }
+        return selections;
+    }
+
+    public void saveBudgetChars(int chars) {
+        props.setProperty("budget.chars", String.valueOf(chars));
+    }
+
+    public int loadBudgetChars() {
+        return Integer.parseInt(props.getProperty("budget.chars", "400000"));
+    }
 }
@@ -0,0 +1,147 @@
+package wv.codeclip;
+
+import java.util.regex.Pattern;
+
+public final class SignatureExtractor {
+
+    private SignatureExtractor() {}
+
+    private static final Pattern TYPE_HEADER = Pattern.compile(
+            "\\b(class|interface|enum|record)\\s+[A-Za-z_$][\\w$]*"
+    );
+
+    /**
+     * Reduces a Java source to its outline: package, imports, type headers,
+     * fields and member signatures. Method, constructor and initializer
+     * bodies become <code>{ ... }</code>; nested type bodies are kept and
+     * outlined the same way. Comments are dropped.
+     *
+     * @param source Java source code
+     * @return the outline, never null
+     */
+    public static String extract(String source) {
+        StringBuilder out = new StringBuilder(source.length() / 3);
+        int headerStart = 0;
+        int i = 0;
+        int n = source.length();
+
+        while (i < n) {
+            char c = source.charAt(i);
+            char next = i + 1 < n ? source.charAt(i + 1) : '\0';
+
+            if (c == '/' && next == '/') {
+                while (i < n && source.charAt(i) != '\n') i++;
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                int end = skipLiteral(source, i);
+                out.append(source, i, end);
+                i = end;
+                continue;
+            }
+
+            if (c == '{') {
+                String header = out.substring(headerStart);
+                if (TYPE_HEADER.matcher(header).find()) {
+                    out.append('{');
+                    headerStart = out.length();
+                    i++;
+                } else {
+                    out.append("{ ... }");
+                    headerStart = out.length();
+                    i = skipBlock(source, i);
+                }
+                continue;
+            }
+
+            out.append(c);
+            if (c == ';' || c == '}') headerStart = out.length();
+            i++;
+        }
+
+        return squeezeBlankLines(out);
+    }
+
+    /** @return index just past the block starting with the '{' at {@code open} */
+    private static int skipBlock(String source, int open) {
+        int depth = 0;
+        int i = open;
+        int n = source.length();
+
+        while (i < n) {
+            char c = source.charAt(i);
+            char next = i + 1 < n ? source.charAt(i + 1) : '\0';
+
+            if (c == '/' && next == '/') {
+                while (i < n && source.charAt(i) != '\n') i++;
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                i = skipLiteral(source, i);
+                continue;
+            }
+            if (c == '{') depth++;
+            if (c == '}' && --depth == 0) return i + 1;
+            i++;
+        }
+        return n;
+    }
+
+    /** @return index just past the string, text block or char literal at {@code start} */
+    private static int skipLiteral(String source, int start) {
+        int n = source.length();
+        char quote = source.charAt(start);
+
+        if (quote == '"' && source.startsWith("\"\"\"", start)) {
+            int i = start + 3;
+            while (i < n) {
+                if (source.charAt(i) == '\\') {
+                    i += 2;
+                } else if (source.startsWith("\"\"\"", i)) {
+                    return i + 3;
+                } else {
+                    i++;
+                }
+            }
+            return n;
+        }
+
+        int i = start + 1;
+        while (i < n) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote || c == '\n') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    private static String squeezeBlankLines(StringBuilder text) {
+        StringBuilder out = new StringBuilder(text.length());
+        int blank = 0;
+        for (String line : text.toString().split("\n", -1)) {
+            String trimmed = line.stripTrailing();
+            if (trimmed.isBlank()) {
+                if (++blank > 1) continue;
+            } else {
+                blank = 0;
+            }
+            out.append(trimmed).append('\n');
+        }
+        return out.toString().strip() + "\n";
+    }
+}
@@ -2,16 +2,21 @@ package wv.codeclip;
 
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import java.util.function.Consumer;
 
 public class SimpleDocumentListener implements DocumentListener {
 
-    private final Runnable onChange;
+    private final Consumer<DocumentEvent> onChange;
 
     public SimpleDocumentListener(Runnable onChange) {
+        this.onChange = e -> onChange.run();
+    }
+
+    public SimpleDocumentListener(Consumer<DocumentEvent> onChange) {
         this.onChange = onChange;
     }
 
-    @Override public void insertUpdate(DocumentEvent e) { onChange.run(); }
-    @Override public void removeUpdate(DocumentEvent e) { onChange.run(); }
-    @Override public void changedUpdate(DocumentEvent e) { onChange.run(); }
+    @Override public void insertUpdate(DocumentEvent e) { onChange.accept(e); }
+    @Override public void removeUpdate(DocumentEvent e) { onChange.accept(e); }
+    @Override public void changedUpdate(DocumentEvent e) { onChange.accept(e); }
 }
@@ -0,0 +1,178 @@
+package wv.codeclip;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps one CodeClip window per user. The first instance listens on a
+ * Unix-domain socket next to the settings file; later launches send it
+ * their arguments (one absolute path per line) and exit before any Swing
+ * class is loaded. A socket file left behind by a crashed instance is
+ * detected by the refused connection and replaced, and so is an instance
+ * that does not answer within {@link #FORWARD_TIMEOUT_MS}.
+ */
+public final class SingleInstance {
+
+    private static final Path SOCKET =
+            Path.of(System.getProperty("user.home"), ".codeclip.sock");
+    private static final Path LOCK =
+            Path.of(System.getProperty("user.home"), ".codeclip.lock");
+
+    private static final String ACK = "OK";
+
+    // Covers a first instance whose window is still being built
+    private static final long FORWARD_TIMEOUT_MS = 10_000;
+
+    private SingleInstance() {}
+
+    /**
+     * Hands {@code args} to a running instance.
+     *
+     * @return true if one accepted them and this launch should exit; false
+     *         if there is none or it did not answer in time
+     */
+    public static boolean forward(String[] args) {
+        if (!Files.exists(SOCKET)) return false;
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+        // Channels have no read timeout; closing one fails a blocked connect or read
+        Thread watchdog = new Thread(() -> {
+            try {
+                Thread.sleep(FORWARD_TIMEOUT_MS);
+                channel.close();
+            } catch (InterruptedException | IOException ignored) {}
+        }, "codeclip-forward-timeout");
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        try (channel) {
+            channel.connect(UnixDomainSocketAddress.of(SOCKET));
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            for (String arg : args) {
+                out.write(new File(arg).getAbsolutePath());
+                out.write('\n');
+            }
+            out.flush();
+            channel.shutdownOutput();
+
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            return ACK.equals(in.readLine());
+        } catch (IOException e) {
+            return false;
+        } finally {
+            watchdog.interrupt();
+        }
+    }
+
+    /** Outcome of {@link #claim}. */
+    public enum Claim {
+        /** This launch is the instance; call {@link #serve} once it can take files. */
+        CLAIMED,
+        /** A running instance took the arguments; this launch should exit. */
+        FORWARDED,
+        /** No socket support; CodeClip simply runs without single-instance mode. */
+        UNAVAILABLE
+    }
+
+    // Bound by claim, accepted on by serve
+    private static ServerSocketChannel server;
+    // Identifies our socket file, which a launch that timed out may replace
+    private static Object socketKey;
+
+    /**
+     * Hands {@code args} to a running instance or, if there is none, binds
+     * the socket for this launch. Launches claim one at a time under a lock
+     * file, so of two racing launches the second always finds the first
+     * and forwards its arguments to it, and a socket that refuses the
+     * connection, or does not answer, is known to be stale.
+     */
+    public static Claim claim(String[] args) {
+        try (FileChannel lockFile = FileChannel.open(LOCK,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Released when the channel closes
+            lockFile.lock();
+            if (forward(args)) return Claim.FORWARDED;
+
+            ServerSocketChannel bound = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                bound.bind(UnixDomainSocketAddress.of(SOCKET));
+            } catch (IOException inUse) {
+                // Left behind by an instance that crashed, or one that hangs
+                Files.deleteIfExists(SOCKET);
+                bound.bind(UnixDomainSocketAddress.of(SOCKET));
+            }
+            server = bound;
+            socketKey = fileKey();
+        } catch (IOException | UnsupportedOperationException e) {
+            return Claim.UNAVAILABLE;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                if (socketKey != null && socketKey.equals(fileKey())) Files.deleteIfExists(SOCKET);
+            } catch (IOException ignored) {}
+        }));
+        return Claim.CLAIMED;
+    }
+
+    private static Object fileKey() {
+        try {
+            return Files.readAttributes(SOCKET, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts accepting later launches after a successful {@link #claim};
+     * {@code handler} receives each one's files on a background thread (an
+     * empty list for a launch without arguments). Launches that arrived in
+     * between wait in the socket's backlog.
+     */
+    public static void serve(Consumer<List<File>> handler) {
+        if (server == null) return;
+
+        Thread acceptor = new Thread(() -> {
+            while (server.isOpen()) {
+                try (SocketChannel client = server.accept()) {
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+                    List<File> files = new ArrayList<>();
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (!line.isBlank()) files.add(new File(line));
+                    }
+                    handler.accept(files);
+
+                    Writer out = new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8);
+                    out.write(ACK + "\n");
+                    out.flush();
+                } catch (IOException e) {
+                    // A launch that died mid-request; keep serving the others
+                }
+            }
+        }, "codeclip-instance");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+}
@@ -0,0 +1,160 @@
+package wv.codeclip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads source files whatever their encoding.
+ *
+ * Bytes are read into a per-thread heap buffer that is reused across
+ * files. Files are never memory-mapped: on Windows a live mapping blocks
+ * writing the same file until it is garbage collected. A BOM selects
+ * UTF-8 / UTF-16; otherwise the bytes are decoded as strict UTF-8 and, if
+ * that fails, as windows-1252 (a superset of Latin-1), so legacy files
+ * load instead of throwing MalformedInputException. Decoders are reused
+ * per thread. Files over the size cap are decoded only up to the cap and
+ * returned as a marked, truncated preview.
+ */
+public class SourceFileReader {
+
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+
+    // Larger reads get a buffer of their own instead of growing the pooled one
+    private static final int POOLED_MAX = 1024 * 1024;
+    private static final Charset LEGACY = Charset.forName("windows-1252");
+
+    public record Decoded(String text, Charset charset, boolean bom, boolean truncated, long size) {}
+
+    private static final ThreadLocal<Map<Charset, CharsetDecoder>> DECODERS =
+            ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+
+    private final long maxBytes;
+
+    public SourceFileReader(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public Decoded read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean truncated = size > maxBytes;
+            int length = (int) Math.min(size, maxBytes);
+
+            ByteBuffer bytes = readFully(channel, length);
+
+            Charset bomCharset = detectBom(bytes);
+            boolean bom = bomCharset != null;
+
+            String text;
+            Charset charset;
+            if (bom) {
+                charset = bomCharset;
+                text = decode(bytes.duplicate(), charset, truncated);
+            } else {
+                charset = StandardCharsets.UTF_8;
+                text = decode(bytes.duplicate(), charset, truncated);
+                if (text == null) {
+                    charset = LEGACY;
+                    text = decode(bytes.duplicate(), charset, truncated);
+                }
+            }
+            if (text == null) {
+                // windows-1252 leaves five bytes unmapped; Latin-1 maps all
+                charset = StandardCharsets.ISO_8859_1;
+                text = decode(bytes.duplicate(), charset, truncated);
+            }
+
+            if (truncated) {
+                text += "\n// ... [CodeClip: truncated preview, " + length + " of " + size + " bytes]\n";
+            }
+            return new Decoded(text, charset, bom, truncated, size);
+        }
+    }
+
+    /** Writes {@code text} keeping the charset and BOM it was read with, where possible. */
+    public static void write(Path path, String text, Charset charset, boolean bom) throws IOException {
+        if (!charset.newEncoder().canEncode(text)) {
+            charset = StandardCharsets.UTF_8;
+            bom = false;
+        }
+        byte[] body = text.getBytes(charset);
+        byte[] mark = bom ? bomBytes(charset) : new byte[0];
+
+        byte[] out = new byte[mark.length + body.length];
+        System.arraycopy(mark, 0, out, 0, mark.length);
+        System.arraycopy(body, 0, out, mark.length, body.length);
+        Files.write(path, out);
+    }
+
+    // --- Decoding ---
+    private ByteBuffer readFully(FileChannel channel, int length) throws IOException {
+        ByteBuffer buf = BUFFERS.get();
+        if (buf.capacity() < length) {
+            buf = ByteBuffer.allocate(length);
+            if (length <= POOLED_MAX) BUFFERS.set(buf);
+        }
+        buf.clear().limit(length);
+        while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            // keep reading
+        }
+        return buf.flip();
+    }
+
+    /** Consumes the BOM from {@code bytes}, if any, and returns its charset. */
+    private Charset detectBom(ByteBuffer bytes) {
+        int n = bytes.remaining();
+        int b0 = n > 0 ? bytes.get(0) & 0xFF : -1;
+        int b1 = n > 1 ? bytes.get(1) & 0xFF : -1;
+        int b2 = n > 2 ? bytes.get(2) & 0xFF : -1;
+
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            bytes.position(3);
+            return StandardCharsets.UTF_8;
+        }
+        if (b0 == 0xFE && b1 == 0xFF) {
+            bytes.position(2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (b0 == 0xFF && b1 == 0xFE) {
+            bytes.position(2);
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    /** @return the decoded text, or null if the bytes are not valid in {@code charset} */
+    private String decode(ByteBuffer bytes, Charset charset, boolean truncated) {
+        CharsetDecoder decoder = DECODERS.get().computeIfAbsent(charset, c -> c.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT));
+        decoder.reset();
+
+        CharBuffer out = CharBuffer.allocate(
+                (int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+
+        // A truncated file may end inside a multi-byte sequence; decoding it
+        // as not-yet-ended input simply leaves those bytes unconsumed.
+        CoderResult result = decoder.decode(bytes, out, !truncated);
+        if (result.isError()) return null;
+        if (!truncated && decoder.flush(out).isError()) return null;
+
+        return out.flip().toString();
+    }
+
+    private static byte[] bomBytes(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) return new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        if (charset.equals(StandardCharsets.UTF_16BE)) return new byte[]{(byte) 0xFE, (byte) 0xFF};
+        if (charset.equals(StandardCharsets.UTF_16LE)) return new byte[]{(byte) 0xFF, (byte) 0xFE};
+        return new byte[0];
+    }
+}
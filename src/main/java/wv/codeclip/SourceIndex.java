@@ -0,0 +1,426 @@
+package wv.codeclip;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of fully-qualified type name to source file for every .java file
+ * under the project roots of the loaded classes.
+ *
+ * Roots are found by walking up from a loaded file to the outermost
+ * directory carrying a pom.xml / build.gradle; modules declared outside
+ * that tree (Maven {@code <module>}, Gradle {@code include}) are indexed too.
+ * The index is built on a single background thread, persisted to
+ * ~/codeclip-index.txt and refreshed incrementally: files whose mtime and
+ * size are unchanged are not re-read.
+ *
+ * Roots of earlier sessions stay in the file so their projects are quick
+ * to re-index, but lookups only see the roots of the classes loaded now;
+ * a paste never resolves into an unrelated project. Roots whose directory
+ * is gone are dropped.
+ */
+public class SourceIndex {
+
+    private static final Set<String> BUILD_FILES = Set.of(
+            "pom.xml", "build.gradle", "build.gradle.kts",
+            "settings.gradle", "settings.gradle.kts"
+    );
+
+    private static final Set<String> SKIPPED_DIRS = Set.of(
+            ".git", ".svn", ".idea", ".gradle", "target", "build", "out", "node_modules"
+    );
+
+    private static final Pattern PACKAGE_PATTERN =
+            Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;");
+    private static final Pattern MAVEN_MODULE_PATTERN =
+            Pattern.compile("<module>\\s*([^<]+?)\\s*</module>");
+    private static final Pattern GRADLE_INCLUDE_PATTERN =
+            Pattern.compile("include(?:Build)?\\s*\\(?((?:\\s*['\"][^'\"]+['\"]\\s*,?)+)");
+    private static final Pattern QUOTED_PATTERN =
+            Pattern.compile("['\"]([^'\"]+)['\"]");
+
+    private final File indexFile =
+            new File(System.getProperty("user.home"), "codeclip-index.txt");
+
+    // Rebuilt by publish() from the files under the active roots
+    private volatile Map<String, File> byName = Map.of();
+    private volatile Map<String, File> packageRoots = Map.of();
+
+    // Only touched on the worker thread
+    private final Map<String, Record> byPath = new HashMap<>();
+    private final Set<File> roots = new LinkedHashSet<>();
+    private final Set<File> scanned = new HashSet<>();
+    private final Map<File, File> rootOfDir = new HashMap<>();
+    private final Map<File, List<File>> modulesOf = new HashMap<>();
+    private Set<File> activeRoots = Set.of();
+
+    // Only the newest file list is applied when several arrive during a scan
+    private final AtomicReference<Collection<File>> pendingLoaded = new AtomicReference<>();
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "codeclip-index");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    public SourceIndex() {
+        worker.execute(() -> {
+            load();
+            if (roots.removeIf(root -> !root.isDirectory())) {
+                byPath.values().removeIf(rec -> !underAny(rec.path, roots));
+                save();
+            }
+        });
+    }
+
+    // --- Queries (any thread) ---
+
+    /** @return the indexed file for the type, or null if unknown or deleted */
+    public File lookup(String fqcn) {
+        File f = byName.get(fqcn);
+        return f != null && f.isFile() ? f : null;
+    }
+
+    /** @return the source root holding other files of the package, or null */
+    public File sourceRootFor(String packageName) {
+        return packageName == null ? null : packageRoots.get(packageName);
+    }
+
+    // --- Updates (any thread, applied in the background) ---
+
+    /**
+     * Scopes lookups to the projects (and their declared modules) of
+     * {@code files}, the classes currently loaded, indexing any project not
+     * yet scanned in this session.
+     */
+    public void setLoadedFiles(Collection<File> files) {
+        if (pendingLoaded.getAndSet(List.copyOf(files)) != null) return;
+        worker.execute(() -> {
+            Collection<File> loaded = pendingLoaded.getAndSet(null);
+            Set<File> active = new LinkedHashSet<>();
+            for (File file : loaded) {
+                File root = projectRootOf(file.getAbsoluteFile().getParentFile());
+                if (root == null || active.contains(root)) continue;
+                active.add(root);
+                active.addAll(modulesOf.computeIfAbsent(root, this::declaredModules));
+            }
+
+            boolean changed = false;
+            for (File root : active) {
+                roots.add(root);
+                if (scanned.add(root)) {
+                    scan(root);
+                    changed = true;
+                }
+            }
+            activeRoots = active;
+            publish();
+            if (changed) save();
+        });
+    }
+
+    /** Re-stats the active roots, re-reading only files that changed. */
+    public void refresh() {
+        worker.execute(() -> {
+            rootOfDir.clear();
+            modulesOf.clear();
+            roots.removeIf(root -> !root.isDirectory());
+            byPath.values().removeIf(rec -> !underAny(rec.path, roots));
+            for (File root : activeRoots) scan(root);
+            publish();
+            save();
+        });
+    }
+
+    /** Records a file CodeClip just created. */
+    public void register(String fqcn, File file) {
+        worker.execute(() -> {
+            String path = file.getAbsolutePath();
+            byPath.put(path, new Record(path, file.lastModified(), file.length(), fqcn));
+            publish();
+        });
+    }
+
+    // --- Root detection ---
+    private File projectRootOf(File dir) {
+        if (dir == null) return null;
+        File cached = rootOfDir.get(dir);
+        if (cached != null) return cached;
+
+        File root = null;
+        for (File d = dir; d != null; d = d.getParentFile()) {
+            if (hasBuildFile(d)) {
+                root = d;
+            } else if (root != null) {
+                break;
+            }
+        }
+
+        if (root == null) {
+            // No build file: fall back to the directory above "src". Loose
+            // sources are not indexed, that could mean walking a home folder.
+            for (File d = dir; d != null; d = d.getParentFile()) {
+                if (d.getName().equals("src")) {
+                    root = d.getParentFile();
+                    break;
+                }
+            }
+        }
+
+        if (root != null) rootOfDir.put(dir, root);
+        return root;
+    }
+
+    private boolean hasBuildFile(File dir) {
+        for (String name : BUILD_FILES) {
+            if (new File(dir, name).isFile()) return true;
+        }
+        return false;
+    }
+
+    private List<File> declaredModules(File root) {
+        List<File> modules = new ArrayList<>();
+        collectModules(root, modules, new HashSet<>());
+        modules.removeIf(m -> isUnder(m, root));
+        return modules;
+    }
+
+    private void collectModules(File dir, List<File> out, Set<File> seen) {
+        if (!seen.add(dir)) return;
+
+        List<File> found = new ArrayList<>();
+        String pom = readSmallFile(new File(dir, "pom.xml"));
+        if (pom != null) {
+            Matcher m = MAVEN_MODULE_PATTERN.matcher(pom);
+            while (m.find()) found.add(new File(dir, m.group(1)));
+        }
+        for (String name : new String[]{"settings.gradle", "settings.gradle.kts"}) {
+            String settings = readSmallFile(new File(dir, name));
+            if (settings == null) continue;
+            Matcher m = GRADLE_INCLUDE_PATTERN.matcher(settings);
+            while (m.find()) {
+                Matcher q = QUOTED_PATTERN.matcher(m.group(1));
+                while (q.find()) {
+                    String module = q.group(1);
+                    if (module.startsWith(":")) module = module.substring(1);
+                    found.add(new File(dir, module.replace(':', File.separatorChar)));
+                }
+            }
+        }
+
+        for (File module : found) {
+            try {
+                File canonical = module.getCanonicalFile();
+                if (canonical.isDirectory()) {
+                    out.add(canonical);
+                    collectModules(canonical, out, seen);
+                }
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private boolean isUnder(File file, File dir) {
+        return file.toPath().toAbsolutePath().normalize()
+                .startsWith(dir.toPath().toAbsolutePath().normalize());
+    }
+
+    // --- Scanning ---
+    private void scan(File root) {
+        if (!root.isDirectory()) return;
+
+        String rootPrefix = root.getAbsolutePath() + File.separator;
+        Set<String> seen = new HashSet<>();
+
+        try {
+            Files.walkFileTree(root.toPath(), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    Path name = dir.getFileName();
+                    return name != null && SKIPPED_DIRS.contains(name.toString())
+                            ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String fileName = file.getFileName().toString();
+                    if (!fileName.endsWith(".java")
+                            || fileName.equals("module-info.java")
+                            || fileName.equals("package-info.java")) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    String path = file.toAbsolutePath().toString();
+                    seen.add(path);
+
+                    long mtime = attrs.lastModifiedTime().toMillis();
+                    Record rec = byPath.get(path);
+                    if (rec == null || rec.mtime != mtime || rec.size != attrs.size()) {
+                        String pkg = readPackage(file.toFile());
+                        String simple = fileName.substring(0, fileName.length() - ".java".length());
+                        rec = new Record(path, mtime, attrs.size(),
+                                pkg == null ? simple : pkg + "." + simple);
+                        byPath.put(path, rec);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Forget files that disappeared from this root
+        byPath.values().removeIf(rec -> rec.path.startsWith(rootPrefix) && !seen.contains(rec.path));
+    }
+
+    // Rebuilds the query maps from the records under the active roots
+    private void publish() {
+        Map<String, File> names = new HashMap<>();
+        Map<String, File> packages = new HashMap<>();
+        for (Record rec : byPath.values()) {
+            if (!underAny(rec.path, activeRoots)) continue;
+            File file = new File(rec.path);
+
+            // The same name can exist in several places (test fixtures, copies);
+            // prefer main sources, then the shortest path.
+            names.merge(rec.fqcn, file, SourceIndex::preferred);
+
+            int dot = rec.fqcn.lastIndexOf('.');
+            if (dot > 0) {
+                String pkg = rec.fqcn.substring(0, dot);
+                File dir = file.getParentFile();
+                String pkgPath = File.separator + pkg.replace('.', File.separatorChar);
+                if (dir != null && dir.getPath().endsWith(pkgPath)) {
+                    String abs = dir.getPath();
+                    packages.merge(pkg, new File(abs.substring(0, abs.length() - pkgPath.length())),
+                            SourceIndex::preferred);
+                }
+            }
+        }
+        byName = names;
+        packageRoots = packages;
+    }
+
+    private static File preferred(File old, File cur) {
+        boolean oldTest = isTestSource(old);
+        boolean curTest = isTestSource(cur);
+        if (oldTest != curTest) return oldTest ? cur : old;
+        return cur.getPath().length() < old.getPath().length() ? cur : old;
+    }
+
+    private static boolean underAny(String path, Collection<File> dirs) {
+        for (File dir : dirs) {
+            if (path.startsWith(dir.getAbsolutePath() + File.separator)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isTestSource(File file) {
+        String p = file.getPath().replace(File.separatorChar, '/');
+        return p.contains("/src/test/");
+    }
+
+    // Reads only the header of the file, up to the package clause or the
+    // first import / type declaration.
+    private String readPackage(File file) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.ISO_8859_1), 4096)) {
+            boolean inBlockComment = false;
+            String line;
+            int lines = 0;
+            while ((line = reader.readLine()) != null && lines++ < 200) {
+                if (inBlockComment) {
+                    int end = line.indexOf("*/");
+                    if (end < 0) continue;
+                    line = line.substring(end + 2);
+                    inBlockComment = false;
+                }
+                int start = line.indexOf("/*");
+                if (start >= 0 && line.indexOf("*/", start + 2) < 0) {
+                    line = line.substring(0, start);
+                    inBlockComment = true;
+                }
+
+                Matcher m = PACKAGE_PATTERN.matcher(line);
+                if (m.find()) return m.group(1);
+
+                String t = line.trim();
+                if (t.startsWith("//") || t.startsWith("*")) continue;
+                if (t.startsWith("import ") || t.contains("class ")
+                        || t.contains("interface ") || t.contains("enum ")
+                        || t.contains("record ")) {
+                    return null;
+                }
+            }
+        } catch (IOException ignored) {}
+        return null;
+    }
+
+    private String readSmallFile(File file) {
+        if (!file.isFile() || file.length() > 1_000_000) return null;
+        try {
+            return Files.readString(file.toPath(), StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // --- Persistence ---
+    private void load() {
+        if (!indexFile.isFile()) return;
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 2 && parts[0].equals("#root")) {
+                    roots.add(new File(parts[1]));
+                } else if (parts.length == 4) {
+                    Record rec = new Record(parts[3], Long.parseLong(parts[0]),
+                            Long.parseLong(parts[1]), parts[2]);
+                    byPath.put(rec.path, rec);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // A damaged index is simply rebuilt by the next scan
+            byPath.clear();
+        }
+    }
+
+    private void save() {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            for (File root : roots) {
+                writer.write("#root\t" + root.getAbsolutePath() + "\n");
+            }
+            for (Record rec : byPath.values()) {
+                writer.write(rec.mtime + "\t" + rec.size + "\t" + rec.fqcn + "\t" + rec.path + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private record Record(String path, long mtime, long size, String fqcn) {}
+}
@@ -0,0 +1,253 @@
+package wv.codeclip;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Named sets of classes, disabled and pinned classes, member selections
+ * and notes.
+ *
+ * The active workspace lives in {@link ClassRepository}; the others are
+ * kept here as path lists. All of them share one content store (path to
+ * source), so a class used by several workspaces is held once, and
+ * switching only moves references around. Each workspace also keeps its
+ * assembled bundle segments, patched in place when a shared class changes
+ * (or reassembled, for a class included by member selection), so the
+ * bundle of the target workspace is ready when switching to it.
+ * Must be used on the EDT.
+ */
+public class WorkspaceManager {
+
+    public static final String DEFAULT = "Default";
+
+    private final Map<String, String> contentStore = new HashMap<>();
+    private final Map<String, Workspace> workspaces = new LinkedHashMap<>();
+    private String active = DEFAULT;
+
+    public static class Workspace {
+        private final String name;
+        private List<String> classes = new ArrayList<>();
+        private Set<String> disabled = new HashSet<>();
+        private Set<String> pinned = new HashSet<>();
+        private Map<String, Set<String>> members = new HashMap<>();
+        private String notes = "";
+
+        // Enabled classes' code by path, in order; null until first assembled
+        private Map<String, String> bundle;
+
+        Workspace(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getClasses() {
+            return Collections.unmodifiableList(classes);
+        }
+
+        public Set<String> getDisabled() {
+            return Collections.unmodifiableSet(disabled);
+        }
+
+        public Set<String> getPinned() {
+            return Collections.unmodifiableSet(pinned);
+        }
+
+        /** Selected member signatures of classes that are only partly included. */
+        public Map<String, Set<String>> getMembers() {
+            return Collections.unmodifiableMap(members);
+        }
+
+        public String getNotes() {
+            return notes;
+        }
+    }
+
+    public WorkspaceManager() {
+        workspaces.put(DEFAULT, new Workspace(DEFAULT));
+    }
+
+    // --- Registry ---
+    public List<String> getNames() {
+        return new ArrayList<>(workspaces.keySet());
+    }
+
+    public String getActive() {
+        return active;
+    }
+
+    public Workspace get(String name) {
+        return workspaces.get(name);
+    }
+
+    public boolean create(String name) {
+        if (workspaces.containsKey(name)) return false;
+        workspaces.put(name, new Workspace(name));
+        return true;
+    }
+
+    /** The active workspace cannot be removed. */
+    public boolean remove(String name) {
+        if (name.equals(active) || !workspaces.containsKey(name)) return false;
+        workspaces.remove(name);
+        pruneStore();
+        return true;
+    }
+
+    /** Restores a persisted workspace; its content is loaded on demand. */
+    public void restore(String name, String[] classes, String[] disabled, String[] pinned,
+                        String notes, Map<String, Set<String>> members) {
+        Workspace ws = workspaces.computeIfAbsent(name, Workspace::new);
+        ws.classes = new ArrayList<>(Arrays.asList(classes));
+        ws.disabled = new HashSet<>(Arrays.asList(disabled));
+        ws.pinned = new HashSet<>(Arrays.asList(pinned));
+        ws.members = new HashMap<>(members);
+        ws.notes = notes;
+        ws.bundle = null;
+    }
+
+    public void setActive(String name) {
+        workspaces.computeIfAbsent(name, Workspace::new);
+        active = name;
+    }
+
+    /**
+     * Adds a class to an inactive workspace, e.g. one whose load finished
+     * after switching away from it. Ignored if the workspace was deleted.
+     */
+    public void addClass(String name, String path, String code) {
+        Workspace ws = workspaces.get(name);
+        if (ws == null || name.equals(active)) return;
+        if (!ws.classes.contains(path)) {
+            ws.classes.add(path);
+            ws.bundle = null;
+        }
+        storeContent(path, code);
+    }
+
+    // --- Switching ---
+
+    /**
+     * Stores the state of the active workspace and publishes its content
+     * to the shared store, patching the cached bundle of every other
+     * workspace that contains a class whose content changed.
+     */
+    public void capture(ClassRepository repo, String notes) {
+        Workspace ws = workspaces.get(active);
+        ClassRepository.Snapshot snapshot = repo.snapshot();
+        ws.classes = new ArrayList<>(snapshot.getClassCodeMap().keySet());
+        ws.disabled = new HashSet<>(snapshot.getDisabledClasses());
+        ws.pinned = new HashSet<>(snapshot.getPinnedClasses());
+        ws.members = new HashMap<>(snapshot.getMemberSelections());
+        ws.notes = notes;
+
+        Map<String, String> bundle = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : snapshot.getClassCodeMap().entrySet()) {
+            String path = e.getKey();
+            String code = e.getValue();
+            String old = contentStore.put(path, code);
+            if (old != null && old != code) patchBundles(path, old, code);
+            if (!ws.disabled.contains(path)) bundle.put(path, snapshot.getBundleCode(path));
+        }
+        ws.bundle = bundle;
+    }
+
+    /**
+     * Replaces the repository content with workspace {@code name}. Classes
+     * whose content is not in the store yet get their disabled state, pin
+     * and member selection all the same, so they keep them when their load
+     * finishes.
+     *
+     * @return paths whose content is not in the store yet and must be read
+     */
+    public List<String> activate(String name, ClassRepository repo) {
+        Workspace ws = workspaces.get(name);
+        active = name;
+
+        List<String> missing = new ArrayList<>();
+        repo.update(batch -> {
+            batch.clear();
+            for (String path : ws.classes) {
+                if (ws.disabled.contains(path)) batch.setDisabled(path, true);
+                if (ws.pinned.contains(path)) batch.setPinned(path, true);
+                batch.setMembers(path, ws.members.get(path));
+                String code = contentStore.get(path);
+                if (code == null) {
+                    missing.add(path);
+                } else {
+                    batch.put(path, new File(path), code);
+                }
+            }
+        });
+        return missing;
+    }
+
+    /**
+     * @return the cached bundle segments of a workspace by path, in order,
+     *         assembling them if needed
+     */
+    public Map<String, String> bundleFor(String name) {
+        Workspace ws = workspaces.get(name);
+        if (ws.bundle == null) {
+            Map<String, String> bundle = new LinkedHashMap<>();
+            for (String path : ws.classes) {
+                String code = contentStore.get(path);
+                if (code != null && !ws.disabled.contains(path)) bundle.put(path, bundleCode(ws, path, code));
+            }
+            ws.bundle = bundle;
+        }
+        return Collections.unmodifiableMap(ws.bundle);
+    }
+
+    // Same as ClassRepository.Snapshot.getBundleCode, for an inactive workspace
+    private static String bundleCode(Workspace ws, String path, String code) {
+        Set<String> selection = ws.members.get(path);
+        return selection == null ? code : MemberIndex.of(code).render(selection);
+    }
+
+    // --- Shared content ---
+
+    /** Paths used by inactive workspaces whose content is not loaded yet. */
+    public Set<String> unloadedPaths() {
+        Set<String> paths = new LinkedHashSet<>();
+        for (Workspace ws : workspaces.values()) {
+            if (ws.name.equals(active)) continue;
+            for (String path : ws.classes) {
+                if (!contentStore.containsKey(path)) paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    public void storeContent(String path, String code) {
+        String old = contentStore.put(path, code);
+        if (old == null) {
+            // Bundles assembled without this class are now incomplete
+            for (Workspace ws : workspaces.values()) {
+                if (ws.classes.contains(path)) ws.bundle = null;
+            }
+        } else if (old != code) {
+            patchBundles(path, old, code);
+        }
+    }
+
+    private void patchBundles(String path, String old, String code) {
+        for (Workspace ws : workspaces.values()) {
+            if (ws.name.equals(active) || ws.bundle == null || ws.disabled.contains(path)) continue;
+            if (ws.members.containsKey(path)) {
+                // The segment is rendered from the class, not the class itself
+                if (ws.bundle.containsKey(path)) ws.bundle = null;
+            } else {
+                ws.bundle.replace(path, old, code);
+            }
+        }
+    }
+
+    private void pruneStore() {
+        Set<String> used = new HashSet<>();
+        for (Workspace ws : workspaces.values()) used.addAll(ws.classes);
+        contentStore.keySet().retainAll(used);
+    }
+}
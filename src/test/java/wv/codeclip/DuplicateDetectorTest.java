@@ -0,0 +1,74 @@
+package wv.codeclip;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateDetectorTest {
+
+    private static final String ANNOTATED =
+            "package bench.dup;\n\n@RunWith(Suite.class)\n@Tag(value = \"enum\")\npublic class ";
+
+    // Regression: a class literal in an annotation once read as the type
+    // declaration, so unrelated annotated classes clustered as "same class"
+    @Test
+    void annotationArgumentsAreNotTypeNames() throws InterruptedException {
+        Map<String, String> classes = new LinkedHashMap<>();
+        classes.put("/a/AlphaTest.java", ANNOTATED + "AlphaTest { void a() {} }\n");
+        classes.put("/b/BetaTest.java", ANNOTATED + "BetaTest { void b() {} }\n");
+        classes.put("/a/Gamma.java", ANNOTATED + "Gamma { int x; }\n");
+        classes.put("/b/Gamma.java", ANNOTATED + "Gamma { long y; }\n");
+
+        assertEquals(List.of(new DuplicateDetector.Cluster(
+                        List.of("/a/Gamma.java", "/b/Gamma.java"), "same class bench.dup.Gamma")),
+                detect(classes));
+    }
+
+    @Test
+    void identicalCopiesReportTheStrongestLinkFirst() throws InterruptedException {
+        String code = "package p;\n\nclass Same { int value() { return 1; } }\n";
+        Map<String, String> classes = new LinkedHashMap<>();
+        classes.put("/a/Same.java", code);
+        classes.put("/b/Other.java", "package q;\n\nclass Other { }\n");
+        classes.put("/c/Same.java", new String(code));
+
+        assertEquals(List.of(new DuplicateDetector.Cluster(
+                        List.of("/a/Same.java", "/c/Same.java"), "identical, same class p.Same")),
+                detect(classes));
+    }
+
+    @Test
+    void nearCopiesAreSimilarButNotIdentical() throws InterruptedException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            body.append("    int method").append(i).append("(int a) { return a * ").append(i).append("; }\n");
+        }
+        Map<String, String> classes = new LinkedHashMap<>();
+        classes.put("/a/Vendored.java", "package a;\n\nclass Vendored {\n" + body + "}\n");
+        classes.put("/b/Copy.java", "package b;\n\n// patched\nclass Copy {\n" + body
+                + "    int extra() { return 0; }\n}\n");
+
+        List<DuplicateDetector.Cluster> clusters = detect(classes);
+        assertEquals(1, clusters.size());
+        assertEquals(List.of("/a/Vendored.java", "/b/Copy.java"), clusters.get(0).paths());
+        assertTrue(clusters.get(0).reason().matches("similar \\((8\\d|9\\d)%\\)"), clusters.get(0).reason());
+    }
+
+    /** Loads {@code classes} in order and waits for the first clusters. */
+    private static List<DuplicateDetector.Cluster> detect(Map<String, String> classes) throws InterruptedException {
+        ClassRepository repo = new ClassRepository();
+        CountDownLatch found = new CountDownLatch(1);
+        DuplicateDetector detector = new DuplicateDetector(repo, clusters -> found.countDown());
+        repo.update(batch -> classes.forEach((path, code) -> batch.put(path, new File(path), code)));
+
+        assertTrue(found.await(10, TimeUnit.SECONDS), "duplicate detection did not finish");
+        return detector.getClusters();
+    }
+}
@@ -0,0 +1,334 @@
+package wv.codeclip;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Headless scale check for the non-UI paths: directory scanning, loading
+ * and reloading classes through the file cache, paste parsing and
+ * validation, bundle assembly and budget packing.
+ *
+ * Generates a synthetic corpus (default 5,000 files of varied size,
+ * package depth and nesting, with text blocks, legacy encodings, BOMs and
+ * files over the size cap) plus a large paste, times each phase and
+ * measures what it allocates, and exits with status 1 when a phase goes
+ * over its budget. {@code mvn verify} runs it after packaging
+ * ({@code -Dcodeclip.bench.skip} skips it), or run it directly:
+ *
+ * <pre>java -cp target/classes:target/test-classes wv.codeclip.ScaleBenchmark [files] [pasteMB]</pre>
+ *
+ * The system property {@code codeclip.bench.slack} multiplies every
+ * budget (default 1.0) for slow machines.
+ */
+public class ScaleBenchmark {
+
+    private static final long MB = 1024 * 1024;
+
+    // Files over this are loaded as truncated previews
+    private static final long MAX_FILE_BYTES = 256 * 1024;
+
+    private record Budget(long millis, long allocatedMB) {}
+
+    private record Measured(String phase, long millis, long allocatedMB, Budget budget) {
+        boolean failed() {
+            return millis > budget.millis || (allocatedMB >= 0 && allocatedMB > budget.allocatedMB);
+        }
+    }
+
+    private final int fileCount;
+    private final int pasteMB;
+    private final double slack;
+    private final Random random = new Random(42);
+    private final List<Measured> results = new ArrayList<>();
+
+    private ScaleBenchmark(int fileCount, int pasteMB, double slack) {
+        this.fileCount = fileCount;
+        this.pasteMB = pasteMB;
+        this.slack = slack;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int pasteMB = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        double slack = Double.parseDouble(System.getProperty("codeclip.bench.slack", "1.0"));
+
+        Path dir = Files.createTempDirectory("codeclip-scale");
+        boolean ok;
+        try {
+            ok = new ScaleBenchmark(files, pasteMB, slack).run(dir);
+        } finally {
+            deleteTree(dir);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private boolean run(Path dir) throws Exception {
+        System.out.println("Generating " + fileCount + " files in " + dir);
+        long corpusBytes = generateCorpus(dir);
+        System.out.println("Corpus: " + corpusBytes / 1024 + " KB");
+
+        // Budgets scale with the corpus; the constants are per 1,000 files,
+        // about 1.5x what each phase takes at 5,000 files on a developer machine
+        double k = fileCount / 1000.0;
+
+        // --- Scanning ---
+        List<File> found = new ArrayList<>();
+        measure("scan directory", budget(60 * k, 1.6 * k), () -> {
+            new FileDropHandler(found::add).handleFiles(List.of(dir.toFile()));
+            return null;
+        });
+        check(found.size() == fileCount, "scan found " + found.size() + " of " + fileCount + " files");
+
+        // --- Loading ---
+        ClassRepository repo = new ClassRepository();
+        repo.getFileCache().setMaxFileBytes(MAX_FILE_BYTES);
+
+        measure("load (cold)", budget(210 * k, 26 * k), () -> {
+            Map<String, String> loaded = new LinkedHashMap<>();
+            for (File file : found) {
+                loaded.put(file.getAbsolutePath(), repo.getFileCache().read(file));
+            }
+            repo.update(batch -> loaded.forEach((path, code) -> batch.put(path, new File(path), code)));
+            return null;
+        });
+        long truncated = found.stream().filter(repo.getFileCache()::isTruncated).count();
+        check(truncated > 0, "no truncated previews in corpus");
+
+        List<String> paths = new ArrayList<>(repo.snapshot().getClassCodeMap().keySet());
+        measure("repo 1000 edits", budget(250 * k, 17 * k), () -> {
+            // copy-on-write: toggles copy the disabled set, puts the class maps
+            for (int i = 0; i < 900; i++) {
+                String path = paths.get(i % paths.size());
+                repo.update(batch -> batch.setDisabled(path, !batch.isDisabled(path)));
+            }
+            for (int i = 0; i < 100; i++) {
+                String path = paths.get(i % paths.size());
+                String code = repo.snapshot().getClassCodeMap().get(path);
+                repo.update(batch -> batch.put(path, new File(path), code + ""));
+            }
+            return null;
+        });
+
+        measure("update all (warm)", budget(84 * k, 20 * k), () -> {
+            // the corpus is larger than the file cache, so part of it is re-read
+            check(ClassActions.reload(repo).isEmpty(), "reload reported missing files");
+            return null;
+        });
+
+        // --- Pasting ---
+        String paste = generatePaste(pasteMB * MB);
+        String edited = paste.replace("int method1(", "int renamed1(");
+        measure("paste parse+validate", budget(700L * pasteMB, 74L * pasteMB), () -> {
+            PasteClassHandler.ParsedSource source = PasteClassHandler.parse(paste);
+            check("bench.paste".equals(source.packageName()), "package not parsed");
+            check("HugePaste".equals(source.className()), "class name not parsed");
+            check(source.topLevelTypes() == 1, "nested types counted as top-level");
+            check(JavaBraceEndChecker.hasCompleteEnd(paste), "brace check failed");
+            check(!MissingMethodDetector.findMissingMethods(paste, edited).isEmpty(),
+                    "missing method not detected");
+            return null;
+        });
+
+        // --- Bundle ---
+        List<String> segments = new ArrayList<>(repo.snapshot().getClassCodeMap().values());
+        BundleDocument document = new BundleDocument();
+        measure("bundle assemble", budget(440 * k, 85 * k), () -> {
+            // dominated by the line elements PlainDocument keeps per line
+            document.setSegments(segments);
+            return null;
+        });
+
+        segments.set(segments.size() / 2, "class Changed {}\n");
+        measure("bundle one change", budget(34 * k, 4), () -> {
+            document.setSegments(segments);
+            return null;
+        });
+
+        StringBuilder copied = new StringBuilder(document.getLength());
+        measure("bundle copy text", budget(10 * k, 4), () -> {
+            document.appendTo(copied);
+            return null;
+        });
+        check(copied.length() == document.getLength(), "copied text length mismatch");
+
+        List<BundlePacker.Item> items = new ArrayList<>();
+        repo.snapshot().getClassCodeMap().forEach((path, code) -> items.add(new BundlePacker.Item(path, code, true)));
+        BundlePacker packer = new BundlePacker();
+        int budgetChars = document.getLength() / 3;
+        BundlePacker.Plan[] plan = new BundlePacker.Plan[1];
+        measure("pack to 1/3 budget", budget(520 * k, 56 * k), () -> {
+            plan[0] = packer.solve(items, budgetChars, Set.of(), Map.of());
+            return null;
+        });
+        check(plan[0].usedChars() <= budgetChars, "packed bundle over budget");
+
+        measure("pack again (cached)", budget(10 * k, k), () -> {
+            check(packer.solve(items, budgetChars, Set.of(), Map.of()) == plan[0], "plan not reused");
+            return null;
+        });
+
+        return report();
+    }
+
+    // ------------------------------------------------------------------
+    // Measuring
+    // ------------------------------------------------------------------
+
+    private Budget budget(double millis, double allocatedMB) {
+        return new Budget((long) Math.ceil(millis * slack),
+                (long) Math.ceil(allocatedMB * slack));
+    }
+
+    private void measure(String phase, Budget budget, Callable<Void> body) throws Exception {
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        body.call();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        long allocAfter = allocatedBytes();
+
+        long allocatedMB = allocBefore < 0 ? -1 : (allocAfter - allocBefore) / MB;
+        results.add(new Measured(phase, millis, allocatedMB, budget));
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean mx
+                && mx.isThreadAllocatedMemorySupported()) {
+            return mx.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        }
+        return -1;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+
+    private boolean report() {
+        boolean ok = true;
+        System.out.printf("%n%-24s %10s %10s %12s %12s%n", "phase", "ms", "budget", "alloc MB", "budget");
+        for (Measured m : results) {
+            System.out.printf("%-24s %10d %10d %12s %12d%s%n",
+                    m.phase, m.millis, m.budget.millis,
+                    m.allocatedMB < 0 ? "n/a" : String.valueOf(m.allocatedMB),
+                    m.budget.allocatedMB,
+                    m.failed() ? "   OVER BUDGET" : "");
+            ok &= !m.failed();
+        }
+        System.out.println(ok ? "\nAll phases within budget" : "\nScale check FAILED");
+        return ok;
+    }
+
+    // ------------------------------------------------------------------
+    // Synthetic corpus
+    // ------------------------------------------------------------------
+
+    private long generateCorpus(Path root) throws IOException {
+        Path src = root.resolve("src/main/java");
+        long total = 0;
+
+        for (int i = 0; i < fileCount; i++) {
+            int depth = 1 + random.nextInt(6);
+            StringBuilder pkg = new StringBuilder("bench");
+            for (int d = 1; d < depth; d++) pkg.append(".p").append(random.nextInt(8));
+
+            String name = "Gen" + i;
+            Path dir = src.resolve(pkg.toString().replace('.', '/'));
+            Files.createDirectories(dir);
+
+            String code = generateClass(pkg.toString(), name, methodCount(i), 1 + random.nextInt(3));
+            byte[] bytes = encode(code, i);
+            Files.write(dir.resolve(name + ".java"), bytes);
+            total += bytes.length;
+        }
+        return total;
+    }
+
+    // Mostly small files, a long tail, and a few over the size cap
+    private int methodCount(int i) {
+        if (i % 997 == 0) return 4000;
+        double r = random.nextDouble();
+        if (r < 0.70) return 2 + random.nextInt(10);
+        if (r < 0.95) return 10 + random.nextInt(40);
+        return 50 + random.nextInt(400);
+    }
+
+    private byte[] encode(String code, int i) {
+        if (i % 50 == 7) {
+            // legacy file: windows-1252 bytes that are not valid UTF-8
+            return code.replace("// plain", "// café §").getBytes(Charset.forName("windows-1252"));
+        }
+        byte[] body = code.getBytes(StandardCharsets.UTF_8);
+        if (i % 50 == 13) {
+            byte[] withBom = new byte[body.length + 3];
+            withBom[0] = (byte) 0xEF;
+            withBom[1] = (byte) 0xBB;
+            withBom[2] = (byte) 0xBF;
+            System.arraycopy(body, 0, withBom, 3, body.length);
+            return withBom;
+        }
+        return body;
+    }
+
+    private String generateClass(String pkg, String name, int methods, int nesting) {
+        StringBuilder sb = new StringBuilder(methods * 220 + 256);
+        sb.append("package ").append(pkg).append(";\n\n")
+          .append("import java.util.*;\n\n")
+          .append("/** Generated class ").append(name).append(" */\n")
+          .append("public class ").append(name).append(" {\n\n")
+          .append("    // plain comment\n")
+          .append("    private final Map<String, List<Integer>> state = new HashMap<>();\n\n");
+
+        appendMethods(sb, methods, "    ");
+
+        String indent = "    ";
+        for (int n = 0; n < nesting; n++) {
+            sb.append(indent).append("static class Inner").append(n).append(" {\n");
+            indent += "    ";
+            appendMethods(sb, 1 + random.nextInt(3), indent);
+        }
+        for (int n = nesting - 1; n >= 0; n--) {
+            indent = indent.substring(4);
+            sb.append(indent).append("}\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    private void appendMethods(StringBuilder sb, int count, String indent) {
+        for (int m = 0; m < count; m++) {
+            sb.append(indent).append("public int method").append(m).append("(int a, String b) {\n");
+            switch (m % 4) {
+                case 0 -> sb.append(indent).append("    String text = \"\"\"\n")
+                            .append(indent).append("        { \"quoted\" } // not a comment\n")
+                            .append(indent).append("        \"\"\";\n")
+                            .append(indent).append("    return text.length() + a;\n");
+                case 1 -> sb.append(indent).append("    if (a > 0) { for (int i = 0; i < a; i++) { b += '}'; } }\n")
+                            .append(indent).append("    return b.length();\n");
+                case 2 -> sb.append(indent).append("    /* block { comment */\n")
+                            .append(indent).append("    return state.getOrDefault(b, List.of()).size();\n");
+                default -> sb.append(indent).append("    Runnable r = () -> { state.clear(); };\n")
+                            .append(indent).append("    r.run();\n")
+                            .append(indent).append("    return a * 31 + \"}{\".length();\n");
+            }
+            sb.append(indent).append("}\n\n");
+        }
+    }
+
+    private String generatePaste(long bytes) {
+        int methods = (int) Math.max(1, bytes / 220);
+        return generateClass("bench.paste", "HugePaste", methods, 3);
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
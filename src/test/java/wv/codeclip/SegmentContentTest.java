@@ -0,0 +1,208 @@
+package wv.codeclip;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks {@link SegmentContent} and {@link BundleDocument} against the
+ * Swing implementations they replace, {@link GapContent} and a plain
+ * {@link PlainDocument}, over random edits.
+ */
+class SegmentContentTest {
+
+    @Test
+    void editsMatchGapContent() throws BadLocationException {
+        for (long seed = 0; seed < 50; seed++) {
+            Random random = new Random(seed);
+            SegmentContent content = new SegmentContent();
+            GapContent expected = new GapContent();
+            List<Position> positions = new ArrayList<>();
+            List<Position> expectedPositions = new ArrayList<>();
+
+            for (int step = 0; step < 400; step++) {
+                int length = expected.length();
+                int op = random.nextInt(10);
+                if (op < 5 || length < 2) {
+                    int where = random.nextInt(length);
+                    String str = randomText(random, 1 + random.nextInt(40));
+                    content.insertString(where, str);
+                    expected.insertString(where, str);
+                } else if (op < 8) {
+                    int where = random.nextInt(length - 1);
+                    int count = 1 + random.nextInt(Math.min(60, length - 1 - where));
+                    content.remove(where, count);
+                    expected.remove(where, count);
+                } else {
+                    int offset = random.nextInt(length + 1);
+                    positions.add(content.createPosition(offset));
+                    expectedPositions.add(expected.createPosition(offset));
+                }
+
+                String where = "seed " + seed + ", step " + step;
+                assertEquals(expected.length(), content.length(), where);
+                assertEquals(expected.getString(0, expected.length()),
+                        content.getString(0, content.length()), where);
+                for (int i = 0; i < positions.size(); i++) {
+                    assertEquals(expectedPositions.get(i).getOffset(), positions.get(i).getOffset(), where);
+                }
+                assertRangesMatch(random, expected.getString(0, expected.length()), content::getChars, where);
+            }
+        }
+    }
+
+    @Test
+    void setSegmentsMatchesPlainDocument() throws BadLocationException {
+        for (long seed = 0; seed < 50; seed++) {
+            Random random = new Random(seed);
+            BundleDocument document = new BundleDocument();
+            PlainDocument expected = new PlainDocument();
+            List<String> segments = new ArrayList<>();
+
+            for (int step = 0; step < 120; step++) {
+                segments = mutate(random, segments);
+                document.setSegments(segments);
+                StringBuilder text = new StringBuilder();
+                for (String s : segments) text.append(s).append("\n\n");
+                expected.remove(0, expected.getLength());
+                expected.insertString(0, text.toString(), null);
+
+                String where = "seed " + seed + ", step " + step;
+                assertEquals(text.length(), document.getLength(), where);
+                assertEquals(text.toString(), document.getText(0, document.getLength()), where);
+                assertEquals(text.toString(), document.getBundleText(), where);
+                assertSameStrings(segments, document.getSegments(), where);
+                assertLinesMatch(expected, document, where);
+                assertRangesMatch(random, text.toString(), document::getText, where);
+            }
+        }
+    }
+
+    @Test
+    void setSegmentsOnlyTouchesChangedClasses() {
+        BundleDocument document = new BundleDocument();
+        List<String> segments = new ArrayList<>();
+        for (int i = 0; i < 5; i++) segments.add(new String("class C" + i + " {}"));
+        document.setSegments(segments);
+
+        List<DocumentEvent> events = new ArrayList<>();
+        document.addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { events.add(e); }
+            @Override public void removeUpdate(DocumentEvent e) { events.add(e); }
+            @Override public void changedUpdate(DocumentEvent e) { events.add(e); }
+        });
+
+        // Same list again: nothing differs by identity
+        document.setSegments(new ArrayList<>(segments));
+        assertTrue(events.isEmpty());
+
+        // Equal text, new instance: replaced, since segments compare by identity
+        List<String> next = new ArrayList<>(segments);
+        next.set(2, new String(segments.get(2)));
+        document.setSegments(next);
+        int offset = segments.get(0).length() + segments.get(1).length() + 4;
+        int length = segments.get(2).length() + 2;
+        assertEquals(2, events.size());
+        assertEquals(DocumentEvent.EventType.REMOVE, events.get(0).getType());
+        assertEquals(offset, events.get(0).getOffset());
+        assertEquals(length, events.get(0).getLength());
+        assertEquals(DocumentEvent.EventType.INSERT, events.get(1).getType());
+        assertEquals(offset, events.get(1).getOffset());
+        assertEquals(length, events.get(1).getLength());
+        assertSame(next.get(2), document.getSegments().get(2));
+    }
+
+    /** Random identity-level changes: keep, drop, add, replace with equal text, move. */
+    private static List<String> mutate(Random random, List<String> segments) {
+        List<String> next = new ArrayList<>(segments);
+        int edits = 1 + random.nextInt(4);
+        for (int k = 0; k < edits; k++) {
+            int op = random.nextInt(5);
+            if (op == 0 || next.isEmpty()) {
+                next.add(random.nextInt(next.size() + 1), randomClass(random));
+            } else if (op == 1) {
+                next.remove(random.nextInt(next.size()));
+            } else if (op == 2) {
+                int i = random.nextInt(next.size());
+                next.set(i, new String(next.get(i)));
+            } else if (op == 3) {
+                next.set(random.nextInt(next.size()), randomClass(random));
+            } else {
+                String moved = next.remove(random.nextInt(next.size()));
+                next.add(random.nextInt(next.size() + 1), moved);
+            }
+        }
+        return next;
+    }
+
+    private static String randomClass(Random random) {
+        StringBuilder sb = new StringBuilder("class C").append(random.nextInt(1000)).append(" {\n");
+        int lines = random.nextInt(6);
+        for (int i = 0; i < lines; i++) sb.append("    ").append(randomText(random, random.nextInt(30))).append('\n');
+        return sb.append('}').toString();
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int c = random.nextInt(12);
+            sb.append(c == 0 ? '\n' : (char) ('a' + c));
+        }
+        return sb.toString();
+    }
+
+    /** {@code getChars} of a content or {@code getText} of a document. */
+    private interface CharReader {
+        void read(int where, int len, Segment txt) throws BadLocationException;
+    }
+
+    private static void assertRangesMatch(Random random, String expected, CharReader actual, String where)
+            throws BadLocationException {
+        int length = expected.length();
+        for (int k = 0; k < 5; k++) {
+            int from = random.nextInt(length + 1);
+            int count = random.nextInt(length - from + 1);
+
+            Segment full = new Segment();
+            actual.read(from, count, full);
+            assertEquals(expected.substring(from, from + count), full.toString(), where);
+
+            // Views read in partial chunks until the range is covered
+            StringBuilder chunks = new StringBuilder();
+            Segment partial = new Segment();
+            partial.setPartialReturn(true);
+            int offset = from;
+            while (offset < from + count) {
+                actual.read(offset, from + count - offset, partial);
+                assertTrue(partial.count > 0, where);
+                chunks.append(partial);
+                offset += partial.count;
+            }
+            assertEquals(expected.substring(from, from + count), chunks.toString(), where);
+        }
+    }
+
+    private static void assertLinesMatch(Document expected, Document actual, String where) {
+        Element expectedRoot = expected.getDefaultRootElement();
+        Element actualRoot = actual.getDefaultRootElement();
+        assertEquals(expectedRoot.getElementCount(), actualRoot.getElementCount(), where);
+        for (int i = 0; i < expectedRoot.getElementCount(); i++) {
+            Element e = expectedRoot.getElement(i);
+            Element a = actualRoot.getElement(i);
+            assertEquals(e.getStartOffset(), a.getStartOffset(), where + ", line " + i);
+            assertEquals(e.getEndOffset(), a.getEndOffset(), where + ", line " + i);
+        }
+    }
+
+    private static void assertSameStrings(List<String> expected, List<String> actual, String where) {
+        assertEquals(expected.size(), actual.size(), where);
+        for (int i = 0; i < expected.size(); i++) assertSame(expected.get(i), actual.get(i), where);
+    }
+}